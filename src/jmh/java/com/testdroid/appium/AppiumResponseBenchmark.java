@@ -0,0 +1,46 @@
+package com.testdroid.appium;
+
+import com.testdroid.appium.model.AppiumResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the Appium broker upload response
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class AppiumResponseBenchmark {
+
+    static final String UPLOAD_RESPONSE = "{\"status\":0,\"sessionId\":null,\"value\":{\"message\":\"uploads successful\","
+            + "\"uploadCount\":1,\"expiresIn\":1800,"
+            + "\"uploads\":{\"file\":\"a8b3c1d2-e4f5-4a6b-8c7d-9e0f1a2b3c4d/benchmark.apk\"}}}";
+
+    private final byte[] response = UPLOAD_RESPONSE.getBytes(StandardCharsets.UTF_8);
+
+    @Benchmark
+    public AppiumResponse parseString() throws IOException {
+        return TestdroidAppiumClient.OBJECT_MAPPER.readValue(UPLOAD_RESPONSE, AppiumResponse.class);
+    }
+
+    @Benchmark
+    public AppiumResponse parseStream() throws IOException {
+        // Like postFile(), which reads the response content stream
+        return TestdroidAppiumClient.OBJECT_MAPPER.readValue(new ByteArrayInputStream(response), AppiumResponse.class);
+    }
+}
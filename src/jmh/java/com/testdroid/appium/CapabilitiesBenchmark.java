@@ -0,0 +1,48 @@
+package com.testdroid.appium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Desired capabilities built for every new session, against a local Appium server so no device is looked up
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class CapabilitiesBenchmark {
+
+    private TestdroidAppiumClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        client = new TestdroidAppiumClient();
+        client.setAppiumUrl(new URL("http://localhost:4723/wd/hub"));
+        client.setPlatformName("Android");
+        client.setAppFile(new File("benchmark.apk"));
+        client.setDeviceName("Benchmark Device");
+        client.setAndroidPackage("com.example.benchmark");
+        client.setAndroidActivity(".MainActivity");
+        client.setAutomationName("Appium");
+    }
+
+    @Benchmark
+    public DesiredCapabilities setCommonCapabilities() throws Exception {
+        return client.setCommonCapabilities();
+    }
+}
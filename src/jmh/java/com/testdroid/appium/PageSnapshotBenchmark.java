@@ -0,0 +1,162 @@
+package com.testdroid.appium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Page snapshot parsing and local XPath queries on UiAutomator hierarchies of list screens, compared to
+ * the JDK XPath implementation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class PageSnapshotBenchmark {
+
+    private static final String BY_ID = "//android.widget.TextView[@resource-id='com.example:id/title']";
+
+    private static final String BY_TEXT = "//*[@text='Item 42' or @content-desc='Item 42']";
+
+    private static final String NESTED = "//androidx.recyclerview.widget.RecyclerView/*[last()]//"
+            + "android.widget.TextView[contains(@text, 'Subtitle') and @enabled='true']";
+
+    // Axis not supported by the snapshot XPath, evaluated on the DOM
+    private static final String SIBLING = "//*[@text='Item 42']/following-sibling::android.widget.TextView";
+
+    @Param({"50", "500"})
+    public int rows;
+
+    private String source;
+
+    private PageSnapshot snapshot;
+
+    private Document dom;
+
+    private XPath xpath;
+
+    @Setup
+    public void setUp() throws Exception {
+        source = createSource(rows);
+        snapshot = new PageSnapshot(null, source);
+        snapshot.count(SIBLING); // Build the DOM up front
+        dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(source)));
+        xpath = XPathFactory.newInstance().newXPath();
+    }
+
+    /**
+     * Hierarchy as dumped by UiAutomator2 for an app bar and a list, each row having an icon, title and subtitle
+     */
+    static String createSource(int rows) {
+        StringBuilder xml = new StringBuilder(rows * 1500);
+        xml.append("<?xml version='1.0' encoding='UTF-8' standalone='yes' ?>\n")
+                .append("<hierarchy index=\"0\" class=\"hierarchy\" rotation=\"0\" width=\"1080\" height=\"2280\">\n");
+        int[] index = {0};
+        open(xml, "android.widget.FrameLayout", "", "", "", 0, 0, 1080, 2280, index);
+        open(xml, "android.widget.LinearLayout", "", "", "", 0, 0, 1080, 2280, index);
+        open(xml, "android.widget.FrameLayout", "android:id/content", "", "", 0, 66, 1080, 2280, index);
+        open(xml, "android.view.ViewGroup", "com.example:id/toolbar", "", "", 0, 66, 1080, 220, index);
+        leaf(xml, "android.widget.ImageButton", "", "", "Navigate up", 0, 66, 154, 220, index);
+        leaf(xml, "android.widget.TextView", "", "Items", "", 198, 110, 400, 176, index);
+        xml.append("</android.view.ViewGroup>\n");
+        open(xml, "androidx.recyclerview.widget.RecyclerView", "com.example:id/list", "", "", 0, 220, 1080, 2280,
+                index);
+        for (int row = 0; row < rows; row++) {
+            int top = 220 + row * 200;
+            open(xml, "android.widget.LinearLayout", "com.example:id/row", "", "", 0, top, 1080, top + 200, index);
+            leaf(xml, "android.widget.ImageView", "com.example:id/icon", "", "Icon " + row, 44, top + 44, 156,
+                    top + 156, index);
+            leaf(xml, "android.widget.TextView", "com.example:id/title", "Item " + row, "", 200, top + 40, 1036,
+                    top + 100, index);
+            leaf(xml, "android.widget.TextView", "com.example:id/subtitle", "Subtitle " + row, "", 200, top + 100,
+                    1036, top + 160, index);
+            xml.append("</android.widget.LinearLayout>\n");
+        }
+        xml.append("</androidx.recyclerview.widget.RecyclerView>\n")
+                .append("</android.widget.FrameLayout>\n</android.widget.LinearLayout>\n")
+                .append("</android.widget.FrameLayout>\n</hierarchy>\n");
+        return xml.toString();
+    }
+
+    private static void open(StringBuilder xml, String className, String resourceId, String text, String contentDesc,
+                             int left, int top, int right, int bottom, int[] index) {
+        element(xml, className, resourceId, text, contentDesc, left, top, right, bottom, index);
+        xml.append(">\n");
+    }
+
+    private static void leaf(StringBuilder xml, String className, String resourceId, String text, String contentDesc,
+                             int left, int top, int right, int bottom, int[] index) {
+        element(xml, className, resourceId, text, contentDesc, left, top, right, bottom, index);
+        xml.append(" />\n");
+    }
+
+    private static void element(StringBuilder xml, String className, String resourceId, String text,
+                                String contentDesc, int left, int top, int right, int bottom, int[] index) {
+        boolean clickable = className.endsWith("LinearLayout") || className.endsWith("Button");
+        xml.append('<').append(className)
+                .append(" index=\"").append(index[0]++ % 4).append('"')
+                .append(" package=\"com.example\" class=\"").append(className).append('"')
+                .append(" text=\"").append(text).append('"')
+                .append(" resource-id=\"").append(resourceId).append('"')
+                .append(" checkable=\"false\" checked=\"false\"")
+                .append(" clickable=\"").append(clickable).append('"')
+                .append(" enabled=\"true\" focusable=\"").append(clickable).append('"')
+                .append(" focused=\"false\" long-clickable=\"false\" password=\"false\"")
+                .append(" scrollable=\"").append(className.endsWith("RecyclerView")).append('"')
+                .append(" selected=\"false\" displayed=\"true\"")
+                .append(" content-desc=\"").append(contentDesc).append('"')
+                .append(" bounds=\"[").append(left).append(',').append(top).append("][")
+                .append(right).append(',').append(bottom).append("]\"");
+    }
+
+    @Benchmark
+    public PageSnapshot parse() {
+        return new PageSnapshot(null, source);
+    }
+
+    @Benchmark
+    public int countById() {
+        return snapshot.count(BY_ID);
+    }
+
+    @Benchmark
+    public String textByText() {
+        return snapshot.getText(BY_TEXT);
+    }
+
+    @Benchmark
+    public int countNested() {
+        return snapshot.count(NESTED);
+    }
+
+    @Benchmark
+    public int countSiblingOnDom() {
+        return snapshot.count(SIBLING);
+    }
+
+    @Benchmark
+    public int countByIdJdk() throws Exception {
+        // Baseline for countById(), as evaluated without the snapshot XPath
+        return ((NodeList) xpath.evaluate(BY_ID, dom, XPathConstants.NODESET)).getLength();
+    }
+}
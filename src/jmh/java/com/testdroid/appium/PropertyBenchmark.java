@@ -0,0 +1,56 @@
+package com.testdroid.appium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration property lookup, first from system properties and then from testdroid.properties
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class PropertyBenchmark {
+
+    private static final String SYSTEM_PROPERTY = "testdroid.benchmark.property";
+
+    private static final String MISSING_PROPERTY = "testdroid.benchmark.missing";
+
+    private TestdroidAppiumClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty(SYSTEM_PROPERTY, "value");
+        client = new TestdroidAppiumClient();
+    }
+
+    @Benchmark
+    public String systemProperty() {
+        return client.getProperty(SYSTEM_PROPERTY);
+    }
+
+    @Benchmark
+    public String propertiesFile() {
+        // Falls through to testdroid.properties
+        return client.getProperty(MISSING_PROPERTY);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String systemPropertyContended() {
+        return client.getProperty(SYSTEM_PROPERTY);
+    }
+}
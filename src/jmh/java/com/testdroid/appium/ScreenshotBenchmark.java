@@ -0,0 +1,118 @@
+package com.testdroid.appium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.OutputType;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling of screenshots as received from Appium: base64 decoding, writing to file and indexing
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configuration=log4j-benchmark.properties")
+public class ScreenshotBenchmark {
+
+    @Param({"720x1280", "1440x2560"})
+    public String resolution;
+
+    private String base64;
+
+    private byte[] png;
+
+    private File directory;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = resolution.split("x");
+        png = createScreenshot(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+        base64 = Base64.getEncoder().encodeToString(png);
+        directory = Files.createTempDirectory("screenshot-benchmark").toFile();
+        file = new File(directory, "screenshot.png");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    /**
+     * Screen-like image: status bar, list rows with text-sized blocks and some noise, so that PNG compression
+     * is neither trivial nor pathological
+     */
+    private static byte[] createScreenshot(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        Random random = new Random(42);
+        graphics.setColor(Color.WHITE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(new Color(0x3F51B5));
+        graphics.fillRect(0, 0, width, height / 12);
+        int row = height / 16;
+        for (int y = height / 12; y < height; y += row) {
+            graphics.setColor(Color.LIGHT_GRAY);
+            graphics.drawLine(0, y, width, y);
+            graphics.setColor(Color.DARK_GRAY);
+            for (int x = width / 20; x < width * 3 / 4; x += width / 30 + random.nextInt(width / 30)) {
+                graphics.fillRect(x, y + row / 3, width / 40 + random.nextInt(width / 40), row / 3);
+            }
+        }
+        graphics.dispose();
+        for (int i = 0; i < width * height / 100; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xFFFFFF));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return OutputType.BYTES.convertFromBase64Png(base64);
+    }
+
+    @Benchmark
+    public File decodeAndWrite() throws IOException {
+        // Like takeScreenshot(String)
+        Files.write(file.toPath(), OutputType.BYTES.convertFromBase64Png(base64));
+        return file;
+    }
+
+    @Benchmark
+    public ScreenshotIndex.Entry store() throws IOException {
+        // New index every time, so that the screenshot is written and hashed instead of linked as a duplicate
+        return new ScreenshotIndex().store(file, png);
+    }
+
+    @Benchmark
+    public long perceptualHash() throws IOException {
+        return ScreenshotIndex.perceptualHash(png);
+    }
+}
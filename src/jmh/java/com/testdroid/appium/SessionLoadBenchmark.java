@@ -0,0 +1,83 @@
+package com.testdroid.appium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hundreds of concurrent clients each starting a session, running a few commands and quitting, against
+ * {@link StubCloudServer} with injected latency
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(200)
+@Fork(value = 1, jvmArgsAppend = {"-Dlog4j.configuration=log4j-benchmark.properties",
+        "-Dsun.net.httpserver.maxIdleConnections=100000"})
+public class SessionLoadBenchmark {
+
+    private static final int DEVICES = 200;
+
+    @Param({"0", "50"})
+    public int latencyMillis;
+
+    private StubCloudServer server;
+
+    private PooledHttpTransport transport;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new StubCloudServer();
+        for (int i = 0; i < DEVICES; i++) {
+            server.addDevice("Stub Android", StubCloudServer.ANDROID, 28);
+        }
+        for (StubCloudServer.Endpoint endpoint : StubCloudServer.Endpoint.values()) {
+            server.setLatency(endpoint, latencyMillis / 2, latencyMillis * 3 / 2, TimeUnit.MILLISECONDS);
+        }
+        server.start();
+        // Like the client when starting sessions
+        TestdroidAppiumClient client = new TestdroidAppiumClient();
+        transport = PooledHttpTransport.get(client.getHttpMaxConnectionsPerHost(),
+                (int) TimeUnit.SECONDS.toMillis(client.getHttpConnectTimeout()),
+                (int) TimeUnit.SECONDS.toMillis(client.getHttpReadTimeout()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public void session() throws Exception {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("testdroid_device", "Stub Android");
+        capabilities.setCapability("testdroid_project", "Load");
+        capabilities.setCapability("testdroid_testrun", Thread.currentThread().getName());
+        TestdroidAppiumDriverAndroid driver = new TestdroidAppiumDriverAndroid(server.getAppiumUrl(), capabilities,
+                transport);
+        try {
+            driver.findElement(By.id("com.example:id/title")).click();
+            driver.findElements(By.className("android.widget.TextView"));
+            driver.getPageSource();
+        } finally {
+            driver.quit();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.testdroid.appium;
+
+import com.testdroid.api.http.MultipartFormDataContent;
+import com.testdroid.appium.model.UploadStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application upload: multipart body construction, and the whole upload against {@link StubCloudServer}, so that
+ * only the client side and loopback transfer are measured
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dlog4j.configuration=log4j-benchmark.properties",
+        "-Dsun.net.httpserver.maxIdleConnections=100000"})
+public class UploadBenchmark {
+
+    @Param({"1048576", "33554432"})
+    public int fileSize;
+
+    private File appFile;
+
+    private StubCloudServer server;
+
+    private TestdroidAppiumClient client;
+
+    @Setup
+    public void setUp() throws Exception {
+        appFile = File.createTempFile("upload-benchmark", ".apk");
+        try (RandomAccessFile file = new RandomAccessFile(appFile, "rw")) {
+            file.setLength(fileSize);
+        }
+
+        server = new StubCloudServer();
+        server.start();
+
+        client = new TestdroidAppiumClient();
+        server.configure(client);
+        client.setAppFile(appFile);
+        client.setUploadCacheDir(null);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.close();
+        Files.deleteIfExists(appFile.toPath());
+    }
+
+    @Benchmark
+    public long writeMultipart() throws IOException {
+        FileChannelContent fileContent = new FileChannelContent("application/octet-stream", appFile,
+                client.getUploadChunkSize(), null);
+        MultipartFormDataContent multipartContent = new MultipartFormDataContent();
+        multipartContent.addPart(new MultipartFormDataContent.Part("file", fileContent));
+        CountingOutputStream out = new CountingOutputStream();
+        multipartContent.writeTo(out);
+        return out.count;
+    }
+
+    @Benchmark
+    public UploadStatus postFile() throws Exception {
+        return client.postFile();
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.testdroid.appium;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many concurrent sessions in one JVM, each on its own platform or virtual thread, against {@link StubCloudServer}
+ * with cloud-like latency. Virtual threads are used only on Java 21 or newer, run with a Java 21 JVM to compare.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Dlog4j.configuration=log4j-benchmark.properties",
+        "-Dtestdroid.virtualThreads=true", "-Dsun.net.httpserver.maxIdleConnections=100000"})
+public class VirtualThreadsBenchmark {
+
+    private static final int LOOKUPS = 10;
+
+    @Param({"200", "1000", "4000"})
+    public int sessions;
+
+    @Param({"false", "true"})
+    public boolean virtual;
+
+    private StubCloudServer server;
+
+    private PooledHttpTransport transport;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new StubCloudServer();
+        for (int i = 0; i < sessions; i++) {
+            server.addDevice("Stub Android", StubCloudServer.ANDROID, 28);
+        }
+        server.setLatency(StubCloudServer.Endpoint.SESSION, 200, 400, TimeUnit.MILLISECONDS);
+        server.setLatency(StubCloudServer.Endpoint.COMMAND, 50, 150, TimeUnit.MILLISECONDS);
+        server.start();
+        transport = PooledHttpTransport.get(sessions, (int) TimeUnit.MINUTES.toMillis(1),
+                (int) TimeUnit.MINUTES.toMillis(10));
+        // One thread per session, like TestdroidAppiumClient.getAndroidDrivers with parallelism of all sessions
+        executor = Executors.newFixedThreadPool(sessions, ExecutionThreads.factory("Session", virtual));
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdownNow();
+        server.close();
+    }
+
+    @Benchmark
+    public int concurrentSessions() throws Exception {
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            futures.add(executor.submit(() -> {
+                DesiredCapabilities capabilities = new DesiredCapabilities();
+                capabilities.setCapability("platformName", "Android");
+                capabilities.setCapability("testdroid_device", "Stub Android");
+                capabilities.setCapability("testdroid_project", "Scaling");
+                TestdroidAppiumDriverAndroid driver =
+                        new TestdroidAppiumDriverAndroid(server.getAppiumUrl(), capabilities, transport);
+                try {
+                    for (int lookup = 0; lookup < LOOKUPS; lookup++) {
+                        driver.findElement(By.id("com.example:id/title")).getText();
+                    }
+                } finally {
+                    driver.quit();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return futures.size();
+    }
+}
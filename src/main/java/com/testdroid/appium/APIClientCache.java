@@ -0,0 +1,64 @@
+package com.testdroid.appium;
+
+import com.testdroid.api.DefaultAPIClient;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Testdroid API clients shared by clients of the same cloud URL and credentials
+ * <p>
+ * Sharing lets the clients reuse the access token and the device run monitor poll their runs together. The cache
+ * is bounded, the least recently used API client is dropped when too many credentials are in use.
+ */
+final class APIClientCache {
+
+    private static final int MAX_CLIENTS = 64;
+
+    private static final class Entry {
+
+        private final DefaultAPIClient api;
+
+        private volatile long lastUsed;
+
+        Entry(DefaultAPIClient api) {
+            this.api = api;
+        }
+    }
+
+    private static final ConcurrentMap<String, Entry> CLIENTS = new ConcurrentHashMap<>();
+
+    private APIClientCache() {
+    }
+
+    static DefaultAPIClient get(String cloudUrl, String username, String password) {
+        // Password is part of the key only as a hash, so that changed passwords get a new API client
+        String key = cloudUrl + '\n' + StringUtils.defaultString(username) + '\n'
+                + DigestUtils.sha256Hex(StringUtils.defaultString(password));
+        Entry entry = CLIENTS.computeIfAbsent(key, k -> new Entry(new DefaultAPIClient(cloudUrl, username, password)));
+        entry.lastUsed = System.nanoTime();
+        if (CLIENTS.size() > MAX_CLIENTS) {
+            evict(entry);
+        }
+        return entry.api;
+    }
+
+    private static void evict(Entry keep) {
+        Map.Entry<String, Entry> oldest = null;
+        for (Map.Entry<String, Entry> candidate : CLIENTS.entrySet()) {
+            if (candidate.getValue() != keep
+                    && (oldest == null || candidate.getValue().lastUsed - oldest.getValue().lastUsed < 0)) {
+                oldest = candidate;
+            }
+        }
+        if (oldest != null) {
+            // Clients already holding the API client keep using it
+            if (CLIENTS.remove(oldest.getKey(), oldest.getValue())) {
+                DeviceCatalog.remove(oldest.getValue().api);
+            }
+        }
+    }
+}
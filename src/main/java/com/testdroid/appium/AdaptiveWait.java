@@ -0,0 +1,245 @@
+package com.testdroid.appium;
+
+import org.openqa.selenium.*;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Waits for the UI by polling, instead of fixed sleeps and long implicit waits
+ * <p>
+ * Polling starts at the time the screen has typically needed to settle, learned from earlier waits on the same
+ * screen, and backs off from there, so a screen is usually checked right when it is ready. The learned times are
+ * shared by all drivers of the JVM. Time spent waiting is counted here and recorded to the command metrics of the
+ * driver as commands named wait.stable, wait.element, wait.absence and wait.condition.
+ * <p>
+ * Element waits look up elements once per poll, so set the implicit wait to zero or to a short time when using
+ * them, especially for checking that an element is not shown.
+ */
+public class AdaptiveWait {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveWait.class);
+
+    private static final long MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long MAX_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+
+    // Weight of the latest wait in the learned settle time
+    private static final double LATEST_WEIGHT = 0.3;
+
+    // Bound for the learned settle times, more screens than this are forgotten and learned again
+    private static final int MAX_SCREENS = 1000;
+
+    private static final ConcurrentMap<String, Long> SETTLE_TIMES = new ConcurrentHashMap<>();
+
+    private final RemoteWebDriver driver;
+
+    private final Supplier<CommandMetrics> commandMetrics;
+
+    private volatile Supplier<String> screen;
+
+    private final AtomicLong waitCount = new AtomicLong();
+    private final AtomicLong pollCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * @param screen Name of the current screen, for learning settle times per screen, null if not known
+     */
+    AdaptiveWait(RemoteWebDriver driver, Supplier<CommandMetrics> commandMetrics, Supplier<String> screen) {
+        this.driver = driver;
+        this.commandMetrics = commandMetrics;
+        this.screen = screen;
+    }
+
+    /**
+     * Set how the current screen is named, for example by the title of the page, to learn settle times per screen
+     */
+    public void setScreen(Supplier<String> screen) {
+        this.screen = screen;
+    }
+
+    /**
+     * Wait until the page source stays the same between two polls
+     *
+     * @return Time waited in milliseconds
+     * @throws TimeoutException if the screen keeps changing
+     */
+    public long waitForStable(long timeout, TimeUnit unit) {
+        long started = System.nanoTime();
+        int[] previous = {0};
+        boolean[] first = {true};
+        // Settle time is learned only from screens that changed while polled, as a screen stable already at the
+        // first poll tells nothing about how long it takes to settle
+        boolean[] changed = {false};
+        long[] appeared = {0}; // Poll where the current page source was first seen
+        poll("wait.stable", "", d -> {
+            long polled = System.nanoTime();
+            int hash = d.getPageSource().hashCode();
+            boolean stable = !first[0] && hash == previous[0];
+            if (!stable) {
+                changed[0] = !first[0];
+                appeared[0] = polled;
+            }
+            first[0] = false;
+            previous[0] = hash;
+            return stable;
+        }, () -> changed[0] ? appeared[0] : null, timeout, unit);
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    /**
+     * Wait until the element is present
+     *
+     * @throws TimeoutException if the element is not found in time
+     */
+    public WebElement waitForElement(By by, long timeout, TimeUnit unit) {
+        return poll("wait.element", by.toString(), d -> {
+            List<WebElement> elements = d.findElements(by);
+            return elements.isEmpty() ? null : elements.get(0);
+        }, null, timeout, unit);
+    }
+
+    /**
+     * Wait until no element is found, for checking that something is not shown without waiting for long
+     *
+     * @return True if the element was absent, false if it was still present after the timeout
+     */
+    public boolean waitForAbsence(By by, long timeout, TimeUnit unit) {
+        try {
+            poll("wait.absence", by.toString(), d -> d.findElements(by).isEmpty(), null, timeout, unit);
+            return true;
+        } catch (TimeoutException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Wait until the condition returns something else than null or false. Elements not found or gone stale while
+     * evaluating the condition count as the condition not being met yet.
+     *
+     * @param name Name of the condition, for learning its settle time
+     * @return Last value returned by the condition
+     * @throws TimeoutException if the condition is not met in time
+     */
+    public <T> T until(String name, Function<WebDriver, T> condition, long timeout, TimeUnit unit) {
+        return poll("wait.condition", name, condition, null, timeout, unit);
+    }
+
+    /**
+     * @param settledAt Time the screen settled, evaluated once the condition is met, or null if it settled at the
+     *                  poll that met the condition. Returns null when the wait tells nothing about the settle time.
+     */
+    private <T> T poll(String kind, String target, Function<WebDriver, T> condition, Supplier<Long> settledAt,
+            long timeout, TimeUnit unit) {
+        String key = kind + ' ' + target + '@' + getScreen();
+        Long settleTime = SETTLE_TIMES.get(key);
+        // First sleep until the screen has typically settled, then back off from short intervals
+        long firstInterval = settleTime != null ? Math.max(MIN_INTERVAL, Math.min(settleTime, MAX_INTERVAL))
+                : MIN_INTERVAL;
+        long interval = MIN_INTERVAL;
+        long started = System.nanoTime();
+        long deadline = started + unit.toNanos(timeout);
+        int polls = 0;
+        try {
+            while (true) {
+                long polled = System.nanoTime();
+                polls++;
+                T result;
+                try {
+                    result = condition.apply(driver);
+                } catch (NoSuchElementException | StaleElementReferenceException ex) {
+                    result = null;
+                }
+                long now = System.nanoTime();
+                if (result != null && !Boolean.FALSE.equals(result)) {
+                    Long settled = settledAt != null ? settledAt.get() : (Long) polled;
+                    if (settled != null) {
+                        learn(key, settled - started);
+                    }
+                    return result;
+                }
+                if (now - deadline >= 0) {
+                    timeoutCount.incrementAndGet();
+                    throw new TimeoutException(String.format("%s %s not met within %d ms, %d polls", kind, target,
+                            TimeUnit.NANOSECONDS.toMillis(now - started), polls));
+                }
+                if (polls == 1) {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(firstInterval, deadline - now));
+                } else {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(interval, deadline - now));
+                    interval = Math.min(interval * 3 / 2, MAX_INTERVAL);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while waiting", ex);
+        } finally {
+            long waited = System.nanoTime() - started;
+            waitCount.incrementAndGet();
+            pollCount.addAndGet(polls);
+            waitNanos.addAndGet(waited);
+            commandMetrics.get().record(kind, waited);
+            LOGGER.debug("{} {} took {} ms, {} polls", kind, target, TimeUnit.NANOSECONDS.toMillis(waited), polls);
+        }
+    }
+
+    private String getScreen() {
+        Supplier<String> supplier = screen;
+        if (supplier == null) {
+            return "";
+        }
+        try {
+            String name = supplier.get();
+            return name != null ? name : "";
+        } catch (WebDriverException ex) {
+            LOGGER.debug("Unable to name current screen", ex);
+            return "";
+        }
+    }
+
+    private static void learn(String key, long settleTime) {
+        if (SETTLE_TIMES.size() >= MAX_SCREENS && !SETTLE_TIMES.containsKey(key)) {
+            SETTLE_TIMES.clear();
+        }
+        SETTLE_TIMES.merge(key, settleTime,
+                (previous, latest) -> Math.round(LATEST_WEIGHT * latest + (1 - LATEST_WEIGHT) * previous));
+    }
+
+    /**
+     * @return Typical time the screen has needed to meet the condition in milliseconds, null if not learned yet
+     */
+    Long getSettleTime(String kind, String target, String screen) {
+        Long settleTime = SETTLE_TIMES.get(kind + ' ' + target + '@' + screen);
+        return settleTime != null ? TimeUnit.NANOSECONDS.toMillis(settleTime) : null;
+    }
+
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    public long getPollCount() {
+        return pollCount.get();
+    }
+
+    /**
+     * @return Number of waits that ended without the condition met
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return Total time spent waiting
+     */
+    public long getWaitTime(TimeUnit unit) {
+        return unit.convert(waitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+}
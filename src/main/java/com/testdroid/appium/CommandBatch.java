@@ -0,0 +1,288 @@
+package com.testdroid.appium;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openqa.selenium.By;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Sequence of element lookups and actions sent with as few round trips as possible
+ * <p>
+ * Lookups and text reads between two actions do not depend on each other, so in browser sessions they are resolved
+ * together with one script execution. Native sessions resolve them one after another, as Appium runs the commands
+ * of a session one at a time. Actions are sent one at a time in the given order, and use the elements resolved
+ * right before them, so that an action does not need a lookup of its own.
+ * <p>
+ * Example:
+ * <pre>
+ * List&lt;Object&gt; results = driver.batch()
+ *         .getText(By.id("title"))
+ *         .find(By.id("name"))
+ *         .sendKeys(By.id("name"), "John Doe")
+ *         .click(By.id("submit"))
+ *         .execute();
+ * </pre>
+ */
+public class CommandBatch {
+
+    private static final String LOOKUP_SCRIPT = loadScript("command-batch.js");
+
+    // Locator strategies of the lookup script by the prefix of locator descriptions, as Selenium has no accessor
+    private static final Map<String, String> SCRIPT_STRATEGIES = new LinkedHashMap<>();
+
+    static {
+        SCRIPT_STRATEGIES.put("By.id: ", "id");
+        SCRIPT_STRATEGIES.put("By.name: ", "name");
+        SCRIPT_STRATEGIES.put("By.className: ", "class name");
+        SCRIPT_STRATEGIES.put("By.tagName: ", "tag name");
+        SCRIPT_STRATEGIES.put("By.cssSelector: ", "css selector");
+        SCRIPT_STRATEGIES.put("By.xpath: ", "xpath");
+        SCRIPT_STRATEGIES.put("By.linkText: ", "link text");
+        SCRIPT_STRATEGIES.put("By.partialLinkText: ", "partial link text");
+    }
+
+    private enum Kind {
+        FIND, FIND_ALL, TEXT, CLICK, SEND_KEYS, BACK;
+
+        boolean isAction() {
+            return this == CLICK || this == SEND_KEYS || this == BACK;
+        }
+    }
+
+    private static final class Step {
+
+        private final Kind kind;
+
+        private final By by;
+
+        private final CharSequence[] keys;
+
+        Step(Kind kind, By by, CharSequence[] keys) {
+            this.kind = kind;
+            this.by = by;
+            this.keys = keys;
+        }
+
+        /**
+         * @return Lookup needed by this step, or null for none
+         */
+        Lookup getLookup() {
+            if (by == null) {
+                return null;
+            }
+            return new Lookup(kind == Kind.FIND_ALL || kind == Kind.TEXT ? kind : Kind.FIND, by);
+        }
+    }
+
+    private static final class Lookup {
+
+        private final Kind kind;
+
+        private final By by;
+
+        Lookup(Kind kind, By by) {
+            this.kind = kind;
+            this.by = by;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Lookup)) {
+                return false;
+            }
+            Lookup other = (Lookup) o;
+            return kind == other.kind && by.equals(other.by);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, by);
+        }
+    }
+
+    private final RemoteWebDriver driver;
+
+    private final boolean scripted;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    CommandBatch(RemoteWebDriver driver) {
+        this.driver = driver;
+        this.scripted = StringUtils.isNotEmpty(driver.getCapabilities().getBrowserName());
+    }
+
+    /**
+     * Find the first matching element, result is {@link WebElement}
+     */
+    public CommandBatch find(By by) {
+        return add(Kind.FIND, by, null);
+    }
+
+    /**
+     * Find all matching elements, result is a list of {@link WebElement}
+     */
+    public CommandBatch findAll(By by) {
+        return add(Kind.FIND_ALL, by, null);
+    }
+
+    /**
+     * Read text of the first matching element, result is {@link String}
+     */
+    public CommandBatch getText(By by) {
+        return add(Kind.TEXT, by, null);
+    }
+
+    /**
+     * Click the first matching element
+     */
+    public CommandBatch click(By by) {
+        return add(Kind.CLICK, by, null);
+    }
+
+    /**
+     * Type into the first matching element
+     */
+    public CommandBatch sendKeys(By by, CharSequence... keys) {
+        return add(Kind.SEND_KEYS, by, keys);
+    }
+
+    /**
+     * Navigate back
+     */
+    public CommandBatch back() {
+        return add(Kind.BACK, null, null);
+    }
+
+    private CommandBatch add(Kind kind, By by, CharSequence[] keys) {
+        steps.add(new Step(kind, by, keys));
+        return this;
+    }
+
+    /**
+     * Send the batch. The batch can be executed again to repeat the same steps.
+     *
+     * @return Result of each step in the order the steps were added, null for actions
+     * @throws NoSuchElementException if an element is not found, no steps after the failed one are sent
+     */
+    public List<Object> execute() {
+        List<Object> results = new ArrayList<>(Collections.nCopies(steps.size(), null));
+        int start = 0;
+        while (start < steps.size()) {
+            // Lookups up to the next action, including the element the action needs
+            int action = start;
+            while (action < steps.size() && !steps.get(action).kind.isAction()) {
+                action++;
+            }
+            List<Lookup> lookups = new ArrayList<>();
+            for (Step step : steps.subList(start, Math.min(action + 1, steps.size()))) {
+                Lookup lookup = step.getLookup();
+                if (lookup != null && !lookups.contains(lookup)) {
+                    lookups.add(lookup);
+                }
+            }
+            Map<Lookup, Object> resolved = resolve(lookups);
+            for (int i = start; i < action; i++) {
+                results.set(i, resolved.get(steps.get(i).getLookup()));
+            }
+            if (action < steps.size()) {
+                Step step = steps.get(action);
+                switch (step.kind) {
+                    case CLICK:
+                        ((WebElement) resolved.get(step.getLookup())).click();
+                        break;
+                    case SEND_KEYS:
+                        ((WebElement) resolved.get(step.getLookup())).sendKeys(step.keys);
+                        break;
+                    default:
+                        driver.navigate().back();
+                        break;
+                }
+            }
+            start = action + 1;
+        }
+        return results;
+    }
+
+    private Map<Lookup, Object> resolve(List<Lookup> lookups) {
+        if (lookups.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        if (scripted && lookups.stream().allMatch(lookup -> getScriptPrefix(lookup.by) != null)) {
+            return resolveWithScript(lookups);
+        }
+        // Appium runs the commands of a session one at a time, so parallel requests would not save round trips
+        Map<Lookup, Object> resolved = new HashMap<>();
+        for (Lookup lookup : lookups) {
+            resolved.put(lookup, lookup(lookup));
+        }
+        return resolved;
+    }
+
+    private Object lookup(Lookup lookup) {
+        switch (lookup.kind) {
+            case FIND_ALL:
+                return driver.findElements(lookup.by);
+            case TEXT:
+                return driver.findElement(lookup.by).getText();
+            default:
+                return driver.findElement(lookup.by);
+        }
+    }
+
+    private Map<Lookup, Object> resolveWithScript(List<Lookup> lookups) {
+        List<Map<String, Object>> arguments = new ArrayList<>();
+        for (Lookup lookup : lookups) {
+            Map<String, Object> argument = new HashMap<>();
+            String prefix = getScriptPrefix(lookup.by);
+            argument.put("using", SCRIPT_STRATEGIES.get(prefix));
+            argument.put("value", lookup.by.toString().substring(prefix.length()));
+            argument.put("all", lookup.kind == Kind.FIND_ALL);
+            argument.put("text", lookup.kind == Kind.TEXT);
+            arguments.add(argument);
+        }
+        List<?> values = (List<?>) driver.executeScript(LOOKUP_SCRIPT, arguments);
+        Map<Lookup, Object> resolved = new HashMap<>();
+        for (int i = 0; i < lookups.size(); i++) {
+            Lookup lookup = lookups.get(i);
+            if (values.get(i) == null) {
+                throw new NoSuchElementException("Unable to locate element: " + lookup.by);
+            }
+            resolved.put(lookup, values.get(i));
+        }
+        return resolved;
+    }
+
+    /**
+     * @return Description prefix of the locator when the lookup script supports it, otherwise null
+     */
+    private static String getScriptPrefix(By by) {
+        String description = by.toString();
+        for (String prefix : SCRIPT_STRATEGIES.keySet()) {
+            if (description.startsWith(prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private static String loadScript(String name) {
+        InputStream in = CommandBatch.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new IllegalStateException("Missing resource " + name);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to load " + name, ex);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.testdroid.appium;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory latency histograms per WebDriver command
+ * <p>
+ * Latencies are counted in microseconds in log-linear buckets: each power of two is split into
+ * {@value #SUB_BUCKETS} linear buckets, so percentiles are accurate to about 6% at a fixed memory cost per command.
+ */
+public class CommandLatencyHistogram implements CommandMetrics {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 64 - SUB_BUCKET_BITS + 1; // including the linear values below SUB_BUCKETS
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(String command, long durationNanos) {
+        histograms.computeIfAbsent(command, k -> new Histogram())
+                .record(TimeUnit.NANOSECONDS.toMicros(Math.max(0, durationNanos)));
+    }
+
+    public long getCount(String command) {
+        Histogram histogram = histograms.get(command);
+        return histogram != null ? histogram.count.get() : 0;
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Latency of the command at the percentile in microseconds, or 0 if the command has not been sent
+     */
+    public long getPercentile(String command, double percentile) {
+        Histogram histogram = histograms.get(command);
+        return histogram != null ? histogram.percentile(percentile) : 0;
+    }
+
+    /**
+     * @return Count, mean, percentiles and maximum in milliseconds per command
+     */
+    public Map<String, Map<String, Object>> getSummary() {
+        Map<String, Map<String, Object>> summary = new TreeMap<>();
+        histograms.forEach((command, histogram) -> {
+            long count = histogram.count.get();
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("count", count);
+            stats.put("meanMs", count > 0 ? histogram.sum.get() / 1000.0 / count : 0);
+            stats.put("p50Ms", histogram.percentile(50) / 1000.0);
+            stats.put("p90Ms", histogram.percentile(90) / 1000.0);
+            stats.put("p99Ms", histogram.percentile(99) / 1000.0);
+            stats.put("maxMs", histogram.max.get() / 1000.0);
+            stats.put("totalMs", histogram.sum.get() / 1000.0);
+            summary.put(command, stats);
+        });
+        return summary;
+    }
+
+    /**
+     * Write summary of all commands as JSON
+     */
+    public void writeJson(File file) throws IOException {
+        OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(file, getSummary());
+    }
+
+    private static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong sum = new AtomicLong();
+
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            buckets.incrementAndGet(index(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        long percentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            // Shift the value so that its top SUB_BUCKET_BITS + 1 bits remain, the highest bit tells the magnitude
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+            return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+            long top = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((top + 1) << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.testdroid.appium;
+
+/**
+ * Receives the duration of every WebDriver command sent by a Testdroid Appium driver
+ *
+ * @see CommandLatencyHistogram
+ */
+public interface CommandMetrics {
+
+    /**
+     * @param command        WebDriver command name, for example findElement or click
+     * @param durationNanos  Round trip time of the command
+     */
+    void record(String command, long durationNanos);
+
+    /**
+     * Called when the driver quits
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,254 @@
+package com.testdroid.appium;
+
+import com.testdroid.api.APIException;
+import com.testdroid.api.APIList;
+import com.testdroid.api.DefaultAPIClient;
+import com.testdroid.api.dto.Context;
+import com.testdroid.api.model.APIDevice;
+import com.testdroid.api.model.APIUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Process-wide cache of the device catalog of each API client
+ * <p>
+ * The catalog is loaded once and then refreshed in background while it is in use, so that device lookups of
+ * session setup are answered locally. Devices are indexed by name. The API has no query for changed devices only,
+ * so a refresh loads the device list again, but keeps the index when only lock states have changed. A catalog older than its time to live is reloaded before answering. A catalog not used for a while
+ * is dropped, and so is the catalog of an API client dropped from {@link APIClientCache}.
+ */
+class DeviceCatalog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceCatalog.class);
+
+    static final long REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    // Catalog older than this is reloaded before answering
+    private static final long TIME_TO_LIVE = TimeUnit.SECONDS.toMillis(30);
+
+    // Stop refreshing in background when not used for this long
+    private static final long IDLE_TIME = TimeUnit.MINUTES.toMillis(5);
+
+    // Devices loaded per request, the catalog is loaded page by page
+    private static final int PAGE_SIZE = 500;
+
+    // Guarded by itself, by identity of the API client
+    private static final Map<DefaultAPIClient, DeviceCatalog> CATALOGS = new IdentityHashMap<>();
+
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(ExecutionThreads.factory("DeviceCatalog"));
+
+    /**
+     * Loaded device list with a name index into it
+     */
+    private static final class Snapshot {
+
+        private final List<APIDevice> devices;
+
+        private final long loaded;
+
+        // Index holds positions in the device list, so it stays valid for a list of the same devices
+        private final Map<String, int[]> byName;
+
+        // Results of name searches, filled on demand
+        private final ConcurrentMap<String, List<APIDevice>> searches = new ConcurrentHashMap<>();
+
+        Snapshot(List<APIDevice> devices, Snapshot previous) {
+            this.devices = devices;
+            this.loaded = System.currentTimeMillis();
+            if (previous != null && sameDevices(previous.devices, devices)) {
+                byName = previous.byName;
+            } else {
+                byName = index(devices, device -> device.getDisplayName().toLowerCase(Locale.ENGLISH));
+            }
+        }
+
+        private static boolean sameDevices(List<APIDevice> a, List<APIDevice> b) {
+            if (a.size() != b.size()) {
+                return false;
+            }
+            for (int i = 0; i < a.size(); i++) {
+                if (!Objects.equals(a.get(i).getId(), b.get(i).getId())
+                        || !Objects.equals(a.get(i).getDisplayName(), b.get(i).getDisplayName())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static <K> Map<K, int[]> index(List<APIDevice> devices, Function<APIDevice, K> key) {
+            Map<K, List<Integer>> positions = new LinkedHashMap<>();
+            for (int i = 0; i < devices.size(); i++) {
+                positions.computeIfAbsent(key.apply(devices.get(i)), k -> new ArrayList<>()).add(i);
+            }
+            Map<K, int[]> index = new LinkedHashMap<>();
+            for (Map.Entry<K, List<Integer>> entry : positions.entrySet()) {
+                index.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+            return index;
+        }
+
+        List<APIDevice> get(int[] positions) {
+            if (positions == null) {
+                return Collections.emptyList();
+            }
+            List<APIDevice> found = new ArrayList<>(positions.length);
+            for (int position : positions) {
+                found.add(devices.get(position));
+            }
+            return found;
+        }
+
+        /**
+         * Devices with the search in their name, like the search of the API
+         */
+        List<APIDevice> search(String search) {
+            String key = search.toLowerCase(Locale.ENGLISH);
+            return searches.computeIfAbsent(key, k -> {
+                List<APIDevice> found = new ArrayList<>();
+                for (Map.Entry<String, int[]> name : byName.entrySet()) {
+                    if (name.getKey().contains(k)) {
+                        found.addAll(get(name.getValue()));
+                    }
+                }
+                return Collections.unmodifiableList(found);
+            });
+        }
+    }
+
+    private final DefaultAPIClient api;
+
+    private volatile Snapshot snapshot;
+
+    private volatile APIUser user;
+
+    private volatile long lastUsed;
+
+    // Guarded by this
+    private boolean refreshScheduled;
+    private boolean closed;
+
+    private DeviceCatalog(DefaultAPIClient api) {
+        this.api = api;
+    }
+
+    static DeviceCatalog getInstance(DefaultAPIClient api) {
+        synchronized (CATALOGS) {
+            return CATALOGS.computeIfAbsent(api, DeviceCatalog::new);
+        }
+    }
+
+    /**
+     * Drop the catalog of the API client and stop refreshing it
+     */
+    static void remove(DefaultAPIClient api) {
+        DeviceCatalog catalog;
+        synchronized (CATALOGS) {
+            catalog = CATALOGS.remove(api);
+        }
+        if (catalog != null) {
+            catalog.close();
+        }
+    }
+
+    /**
+     * @return User of the API client, loaded once
+     */
+    APIUser getUser() throws APIException {
+        lastUsed = System.currentTimeMillis();
+        // Keeps the catalog from being dropped while used
+        scheduleRefresh();
+        APIUser me = user;
+        if (me == null) {
+            me = api.me();
+            user = me;
+        }
+        return me;
+    }
+
+    /**
+     * Devices with the search in their name, case insensitively like the search of the API
+     *
+     * @param maxAge Reload the catalog if it was loaded longer than this ago, in milliseconds
+     */
+    List<APIDevice> search(String search, long maxAge) throws APIException {
+        return getSnapshot(maxAge).search(search);
+    }
+
+    private Snapshot getSnapshot(long maxAge) throws APIException {
+        lastUsed = System.currentTimeMillis();
+        Snapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.loaded > Math.min(maxAge, TIME_TO_LIVE)) {
+            current = refresh(current);
+        }
+        scheduleRefresh();
+        return current;
+    }
+
+    /**
+     * Reload the catalog unless someone else did it meanwhile
+     */
+    private synchronized Snapshot refresh(Snapshot stale) throws APIException {
+        if (snapshot != stale) {
+            return snapshot;
+        }
+        long started = System.nanoTime();
+        List<APIDevice> devices = new ArrayList<>();
+        for (int offset = 0; ; offset += PAGE_SIZE) {
+            APIList<APIDevice> page = api.getDevices(new Context<>(APIDevice.class).setOffset(offset)
+                    .setLimit(PAGE_SIZE)).getEntity();
+            devices.addAll(page.getData());
+            if (page.getData().size() < PAGE_SIZE
+                    || page.getTotal() != null && offset + PAGE_SIZE >= page.getTotal()) {
+                break;
+            }
+        }
+        snapshot = new Snapshot(devices, stale);
+        LOGGER.debug("Loaded {} devices in {} ms", devices.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return snapshot;
+    }
+
+    private synchronized void scheduleRefresh() {
+        if (!refreshScheduled && !closed) {
+            refreshScheduled = true;
+            SCHEDULER.schedule(this::refreshInBackground, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void close() {
+        closed = true;
+    }
+
+    private void refreshInBackground() {
+        synchronized (this) {
+            if (closed || System.currentTimeMillis() - lastUsed > IDLE_TIME) {
+                refreshScheduled = false;
+                synchronized (CATALOGS) {
+                    // Not used anymore, dropped so that its API client can be collected
+                    CATALOGS.remove(api, this);
+                }
+                return;
+            }
+        }
+        // Only the user has been loaded so far
+        if (snapshot != null) {
+            try {
+                refresh(snapshot);
+            } catch (APIException | RuntimeException ex) {
+                LOGGER.warn("Failed to refresh device catalog", ex);
+            }
+        }
+        synchronized (this) {
+            SCHEDULER.schedule(this::refreshInBackground, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+    }
+}
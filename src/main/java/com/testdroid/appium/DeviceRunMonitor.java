@@ -0,0 +1,236 @@
+package com.testdroid.appium;
+
+import com.testdroid.api.APIException;
+import com.testdroid.api.DefaultAPIClient;
+import com.testdroid.api.dto.Context;
+import com.testdroid.api.filter.StringFilterEntry;
+import com.testdroid.api.model.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static com.testdroid.api.dto.Operand.EQ;
+import static com.testdroid.dao.repository.dto.MappingKey.NAME;
+
+/**
+ * Shared poller logging state and results of the test runs started by Appium sessions
+ * <p>
+ * All runs of the JVM are polled by one scheduled thread. Runs of the same project are looked up with a single
+ * query listing the latest test runs of the project, and projects are resolved only once per name. A run is
+ * tracked until it has finished or its client quits. Runs whose output files are downloaded are tracked after
+ * their client has quit, until they have finished and the download has started.
+ */
+class DeviceRunMonitor {
+
+    private static final String RESULTS_INFO =
+            "{} #{} {}/api/v2/users/{}/projects/{}/runs/{}/device-sessions/{}/output-file-set/files";
+
+    private static final long POLL_INTERVAL = 30; // seconds
+
+    // Number of latest test runs fetched per project, runs not among these are searched one by one
+    private static final int RECENT_RUNS = 20;
+
+    // Released runs that have not finished in this time are dropped without downloading their output files
+    private static final long MAX_RELEASED_TIME = TimeUnit.HOURS.toMillis(1);
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceRunMonitor.class);
+
+    private static final DeviceRunMonitor INSTANCE = new DeviceRunMonitor();
+
+    /**
+     * Test run tracked by the monitor
+     */
+    class Run {
+
+        private final DefaultAPIClient api;
+
+        private final String cloudUrl;
+
+        private final String projectName;
+
+        private final String testRunName;
+
+        private final OutputFileDownloader downloader; // Null when output files are not downloaded
+
+        private final CompletableFuture<List<File>> outputFiles = new CompletableFuture<>();
+
+        private volatile long released;
+
+        private Run(DefaultAPIClient api, String cloudUrl, String projectName, String testRunName,
+                OutputFileDownloader downloader) {
+            this.api = api;
+            this.cloudUrl = cloudUrl;
+            this.projectName = projectName;
+            this.testRunName = testRunName;
+            this.downloader = downloader;
+        }
+
+        /**
+         * Stop tracking this run
+         */
+        void cancel() {
+            runs.remove(this);
+            outputFiles.cancel(false);
+        }
+
+        /**
+         * Stop tracking this run when it has finished, after starting the download of its output files
+         */
+        void release() {
+            if (downloader == null) {
+                cancel();
+            } else {
+                released = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * @return Future completed with the downloaded output files of all device sessions of the run
+         */
+        CompletableFuture<List<File>> getOutputFiles() {
+            return outputFiles;
+        }
+    }
+
+    private final Set<Run> runs = ConcurrentHashMap.newKeySet();
+
+    // Accessed only from the scheduler thread
+    private final Map<DefaultAPIClient, APIUser> users = new HashMap<>();
+    private final Map<DefaultAPIClient, Map<String, APIProject>> projects = new HashMap<>();
+
+    private DeviceRunMonitor() {
+        ScheduledExecutorService scheduler =
+                Executors.newSingleThreadScheduledExecutor(ExecutionThreads.factory("DeviceRunMonitor"));
+        scheduler.scheduleWithFixedDelay(this::poll, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    static DeviceRunMonitor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start tracking a test run
+     *
+     * @param downloader Downloader of output files when the run has finished, null for not downloading
+     * @return Handle for cancelling the tracking
+     */
+    Run register(DefaultAPIClient api, String cloudUrl, String projectName, String testRunName,
+            OutputFileDownloader downloader) {
+        Run run = new Run(api, cloudUrl, projectName, testRunName, downloader);
+        runs.add(run);
+        return run;
+    }
+
+    private void poll() {
+        Map<DefaultAPIClient, Map<String, List<Run>>> runsByProject = new HashMap<>();
+        for (Run run : runs) {
+            if (run.released > 0 && System.currentTimeMillis() - run.released > MAX_RELEASED_TIME) {
+                runs.remove(run);
+                run.outputFiles.completeExceptionally(new TimeoutException(
+                        String.format("Test run '%s' did not finish in time", run.testRunName)));
+                continue;
+            }
+            runsByProject.computeIfAbsent(run.api, k -> new HashMap<>())
+                    .computeIfAbsent(run.projectName, k -> new ArrayList<>()).add(run);
+        }
+        // Forget users and projects of clients that have no runs left
+        users.keySet().retainAll(runsByProject.keySet());
+        projects.keySet().retainAll(runsByProject.keySet());
+
+        for (Map.Entry<DefaultAPIClient, Map<String, List<Run>>> entry : runsByProject.entrySet()) {
+            DefaultAPIClient api = entry.getKey();
+            try {
+                APIUser me = users.get(api);
+                if (me == null) {
+                    me = api.me();
+                    users.put(api, me);
+                }
+                for (Map.Entry<String, List<Run>> projectRuns : entry.getValue().entrySet()) {
+                    APIProject project = getProject(api, me, projectRuns.getKey());
+                    if (project != null) {
+                        poll(me, project, projectRuns.getValue());
+                    }
+                }
+            } catch (APIException | RuntimeException ex) {
+                // Keep polling, the runs are dropped when their clients quit
+                LOGGER.error("Failed API query", ex);
+            }
+        }
+    }
+
+    private APIProject getProject(DefaultAPIClient api, APIUser me, String projectName) throws APIException {
+        Map<String, APIProject> userProjects = projects.computeIfAbsent(api, k -> new HashMap<>());
+        APIProject project = userProjects.get(projectName);
+        if (project == null) {
+            // Project is created when the first session starts, so it may not exist yet
+            List<APIProject> found = me.getProjectsResource(new Context<>(APIProject.class)
+                    .addFilter(new StringFilterEntry(NAME, EQ, projectName))).getEntity().getData();
+            if (found.size() > 0) {
+                project = found.get(0);
+                userProjects.put(projectName, project);
+                LOGGER.info("Found project: #{} {}", project.getId(), project.getName());
+            }
+        }
+        return project;
+    }
+
+    private void poll(APIUser me, APIProject project, List<Run> projectRuns) throws APIException {
+        Map<String, APITestRun> recent = new HashMap<>();
+        List<APITestRun> testRuns = project.getTestRunsResource(new Context<>(APITestRun.class)
+                .setLimit(Math.max(RECENT_RUNS, projectRuns.size()))).getEntity().getData();
+        for (APITestRun testRun : testRuns) {
+            recent.putIfAbsent(testRun.getDisplayName(), testRun);
+        }
+        for (Run run : projectRuns) {
+            APITestRun testRun = recent.get(run.testRunName);
+            if (testRun == null) {
+                List<APITestRun> found = project.getTestRunsResource(new Context<>(APITestRun.class).setLimit(1)
+                        .setSearch(run.testRunName)).getEntity().getData();
+                if (found.isEmpty()) {
+                    continue;
+                }
+                testRun = found.get(0);
+            }
+            LOGGER.info("{}: {}", testRun.getDisplayName(), testRun.getState().toString());
+            List<APIDeviceSession> sessions = testRun.getDeviceRunsResource().getEntity().getData();
+            for (APIDeviceSession deviceSession : sessions) {
+                LOGGER.info(RESULTS_INFO, deviceSession.getDevice().getDisplayName(), deviceSession.getId(),
+                        run.cloudUrl, me.getId(), project.getId(), testRun.getId(), deviceSession.getId());
+            }
+            if (APITestRun.State.FINISHED == testRun.getState()) {
+                if (run.downloader != null) {
+                    runs.remove(run);
+                    download(run, project, testRun, sessions);
+                } else {
+                    run.cancel();
+                }
+            }
+        }
+    }
+
+    private void download(Run run, APIProject project, APITestRun testRun, List<APIDeviceSession> sessions) {
+        LOGGER.info("Downloading output files of {} device sessions to {}", sessions.size(),
+                run.downloader.getDirectory().getAbsolutePath());
+        List<CompletableFuture<List<File>>> downloads = new ArrayList<>();
+        for (APIDeviceSession deviceSession : sessions) {
+            downloads.add(run.downloader.download(project.getId(), testRun.getId(), deviceSession.getId(),
+                    deviceSession.getDevice().getDisplayName()));
+        }
+        CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])).whenComplete((done, ex) -> {
+            if (ex != null) {
+                Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                LOGGER.error("Failed to download output files of {}", run.testRunName, cause);
+                run.outputFiles.completeExceptionally(cause);
+                return;
+            }
+            List<File> files = new ArrayList<>();
+            for (CompletableFuture<List<File>> download : downloads) {
+                files.addAll(download.join());
+            }
+            run.outputFiles.complete(files);
+        });
+    }
+}
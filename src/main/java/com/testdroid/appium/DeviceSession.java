@@ -0,0 +1,87 @@
+package com.testdroid.appium;
+
+import io.appium.java_client.AppiumDriver;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.DriverCommand;
+
+import java.util.Collections;
+
+/**
+ * Appium session on one device of a multi-device run started with
+ * {@link TestdroidAppiumClient#getAndroidDrivers(java.util.List, int)} or
+ * {@link TestdroidAppiumClient#getIOSDrivers(java.util.List, int)}, or borrowed from a {@link SessionPool}
+ * <p>
+ * Each session has its own client, test run and device run monitor. Sessions that failed to start carry the
+ * failure instead of a driver.
+ */
+public class DeviceSession<T extends AppiumDriver> {
+
+    private final String deviceName;
+
+    private final TestdroidAppiumClient client;
+
+    private final T driver;
+
+    private final Exception error;
+
+    DeviceSession(String deviceName, TestdroidAppiumClient client, T driver, Exception error) {
+        this.deviceName = deviceName;
+        this.client = client;
+        this.driver = driver;
+        this.error = error;
+    }
+
+    public String getDeviceName() {
+        return deviceName;
+    }
+
+    public String getTestRunName() {
+        return client.getSessionTestRunName();
+    }
+
+    /**
+     * Client driving this device, use for screenshots and quitting the session
+     */
+    public TestdroidAppiumClient getClient() {
+        return client;
+    }
+
+    /**
+     * @return Appium driver, or null if the session failed to start
+     */
+    public T getDriver() {
+        return driver;
+    }
+
+    /**
+     * @return Failure that prevented the session from starting, or null if the session is connected
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isConnected() {
+        return driver != null;
+    }
+
+    /**
+     * Whether the session still answers commands, checked by asking the server for the session capabilities
+     */
+    public boolean isResponding() {
+        if (driver == null) {
+            return false;
+        }
+        try {
+            driver.execute(DriverCommand.GET_CAPABILITIES, Collections.emptyMap());
+            return true;
+        } catch (WebDriverException ex) {
+            return false;
+        }
+    }
+
+    public void quit() {
+        if (isConnected()) {
+            client.quit();
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package com.testdroid.appium;
+
+import io.appium.java_client.AppiumDriver;
+import org.junit.Ignore;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.Filterable;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.Statement;
+import org.openqa.selenium.WebDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.lang.annotation.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * JUnit runner distributing the tests of a suite over several device sessions
+ * <p>
+ * Each device runs one test class at a time and takes the next one from a queue shared by all devices as soon as
+ * it is done, so the suite finishes when all of its work is done rather than when the device given the most work
+ * is. The queue is ordered longest first by durations of previous runs, and tests without history go first of
+ * all. Methods of classes annotated with {@link IndependentMethods} are queued one by one.
+ * <p>
+ * When a test fails and the session of its device no longer answers, the device leaves the suite and the test is
+ * put back to the queue for the other devices. Tests fail on a lost device only when no other device is left.
+ * Results of each queued test are therefore reported once it has run to the end.
+ * <p>
+ * The sessions are acquired when the suite starts and quit when it ends. Test classes get the session of the
+ * device they run on from {@link #getSession()}:
+ * <pre>
+ * &#64;RunWith(DeviceSuite.class)
+ * &#64;Suite.SuiteClasses({LoginTest.class, CheckoutTest.class})
+ * &#64;DeviceSuite.Sessions(CloudDevices.class)
+ * public class AllTests {
+ * }
+ *
+ * public class CloudDevices implements DeviceSuite.SessionSource {
+ *     public List&lt;DeviceSession&lt;TestdroidAppiumDriverAndroid&gt;&gt; open() throws Exception {
+ *         return new TestdroidAppiumClient().getAndroidDrivers(Arrays.asList("Pixel 3", "Galaxy S9"), 2);
+ *     }
+ * }
+ *
+ * public class LoginTest {
+ *     &#64;BeforeClass
+ *     public static void setUp() {
+ *         wd = DeviceSuite.&lt;TestdroidAppiumDriverAndroid&gt;getSession().getDriver();
+ *     }
+ * }
+ * </pre>
+ * Durations are kept in ~/.testdroid/test-durations.properties, or in the file given with system property
+ * testdroid.testDurations.
+ * <p>
+ * The runner is in the artifact with classifier junit, so that the driver itself does not depend on JUnit.
+ */
+public class DeviceSuite extends Suite {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceSuite.class);
+
+    private static final String TESTDROID_TEST_DURATIONS = "testdroid.testDurations";
+    private static final String TEST_DURATIONS_FILE = ".testdroid/test-durations.properties";
+
+    // How often a device with nothing to run checks for tests put back by a lost device
+    private static final long REQUEUE_POLL_INTERVAL = 200; // ms
+
+    /**
+     * Source of the device sessions of the suite, instantiated with its public no-argument constructor
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Inherited
+    public @interface Sessions {
+        Class<? extends SessionSource> value();
+    }
+
+    /**
+     * Marks a test class whose methods can run on different devices, in any order
+     * <p>
+     * Class setup and teardown then run around each method on the device running it. Methods of the class run on
+     * several devices at the same time, so get the session with {@link #getSession()} in each test or in
+     * {@code @Before} and keep it in instance fields. Classes keeping drivers or sessions in static fields are
+     * rejected when the suite is created.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Inherited
+    public @interface IndependentMethods {
+    }
+
+    public interface SessionSource {
+        /**
+         * Acquire the device sessions to run the suite on. Sessions that failed to start are skipped.
+         */
+        List<? extends DeviceSession<?>> open() throws Exception;
+    }
+
+    private static final InheritableThreadLocal<DeviceSession<?>> CURRENT_SESSION = new InheritableThreadLocal<>();
+
+    private static final class WorkItem {
+
+        private final String name;
+
+        private final Runner runner;
+
+        private final long expectedDuration;
+
+        WorkItem(String name, Runner runner, Long expectedDuration) {
+            this.name = name;
+            this.runner = runner;
+            // Unknown tests first, they may be the longest
+            this.expectedDuration = expectedDuration != null ? expectedDuration : Long.MAX_VALUE;
+        }
+    }
+
+    private final RunnerBuilder builder;
+
+    private final Class<? extends SessionSource> sessionSource;
+
+    public DeviceSuite(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+        this.builder = builder;
+        Sessions sessions = klass.getAnnotation(Sessions.class);
+        if (sessions == null) {
+            throw new InitializationError(String.format("Class '%s' must be annotated with @%s.%s",
+                    klass.getName(), DeviceSuite.class.getSimpleName(), Sessions.class.getSimpleName()));
+        }
+        this.sessionSource = sessions.value();
+        for (Runner child : getChildren()) {
+            Class<?> testClass = child.getDescription().getTestClass();
+            if (testClass != null && testClass.isAnnotationPresent(IndependentMethods.class)) {
+                checkNoStaticSession(testClass);
+            }
+        }
+    }
+
+    /**
+     * Reject static fields for drivers and sessions, which methods running on different devices would overwrite
+     */
+    private static void checkNoStaticSession(Class<?> testClass) throws InitializationError {
+        for (Class<?> type = testClass; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) && (WebDriver.class.isAssignableFrom(field.getType())
+                        || DeviceSession.class.isAssignableFrom(field.getType()))) {
+                    throw new InitializationError(String.format("Class '%s' with @%s.%s keeps a session in static "
+                                    + "field '%s', get it from DeviceSuite.getSession() in each test instead",
+                            testClass.getName(), DeviceSuite.class.getSimpleName(),
+                            IndependentMethods.class.getSimpleName(), field.getName()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Session of the device the calling test runs on, also available to threads started by the test
+     *
+     * @throws IllegalStateException if not called from a test run by a device suite
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends AppiumDriver> DeviceSession<T> getSession() {
+        DeviceSession<?> session = CURRENT_SESSION.get();
+        if (session == null) {
+            throw new IllegalStateException("Not running in a device suite");
+        }
+        return (DeviceSession<T>) session;
+    }
+
+    @Override
+    protected Statement childrenInvoker(RunNotifier notifier) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                runOnDevices(new SynchronizedRunNotifier(notifier));
+            }
+        };
+    }
+
+    private void runOnDevices(RunNotifier notifier) throws Throwable {
+        TestDurationHistory history = new TestDurationHistory(getTestDurationsFile());
+        List<Description> ignored = new ArrayList<>();
+        List<WorkItem> items = createWorkItems(history, ignored);
+        // Not worth a class setup on a device
+        for (Description method : ignored) {
+            notifier.fireTestIgnored(method);
+        }
+        if (items.isEmpty()) {
+            return;
+        }
+        List<? extends DeviceSession<?>> sessions = sessionSource.getConstructor().newInstance().open();
+        ExecutorService executor = null;
+        try {
+            List<DeviceSession<?>> connected = new ArrayList<>();
+            for (DeviceSession<?> session : sessions) {
+                if (session.isConnected()) {
+                    connected.add(session);
+                } else {
+                    // Failure has been logged by the client
+                    LOGGER.warn("Session on device '{}' not started, running without it", session.getDeviceName());
+                }
+            }
+            if (connected.isEmpty()) {
+                throw new Exception("No device session started for the suite");
+            }
+            LOGGER.info("Running {} tests on {} devices", items.size(), connected.size());
+
+            Queue<WorkItem> queue = new ConcurrentLinkedQueue<>(items);
+            AtomicInteger pending = new AtomicInteger(items.size());
+            AtomicInteger healthy = new AtomicInteger(connected.size());
+            // Tests run in platform threads, as they may hold locks while waiting for the device
+            executor = Executors.newFixedThreadPool(connected.size(), ExecutionThreads.factory("DeviceSuite", false));
+            List<Future<?>> workers = new ArrayList<>();
+            for (DeviceSession<?> session : connected) {
+                workers.add(executor.submit(() -> {
+                    runItems(session, queue, pending, healthy, notifier, history);
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (ExecutionException ex) {
+                    throw ex.getCause();
+                }
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            history.save();
+            for (DeviceSession<?> session : sessions) {
+                try {
+                    session.quit();
+                } catch (RuntimeException ex) {
+                    LOGGER.warn("Failed to quit session on device '{}'", session.getDeviceName(), ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run items from the queue until all have been run, or until the session is lost while other devices are left
+     *
+     * @param pending Number of items not run to the end yet
+     * @param healthy Number of devices whose session has not been lost
+     */
+    private static void runItems(DeviceSession<?> session, Queue<WorkItem> queue, AtomicInteger pending,
+            AtomicInteger healthy, RunNotifier notifier, TestDurationHistory history) throws InterruptedException {
+        CURRENT_SESSION.set(session);
+        try {
+            while (pending.get() > 0) {
+                WorkItem item = queue.poll();
+                if (item == null) {
+                    // Items still running on other devices come back if their device is lost
+                    Thread.sleep(REQUEUE_POLL_INTERVAL);
+                    continue;
+                }
+                LOGGER.info("Running {} on device '{}'", item.name, session.getDeviceName());
+                BufferedRunNotifier itemNotifier = new BufferedRunNotifier(notifier);
+                long started = System.nanoTime();
+                item.runner.run(itemNotifier);
+                long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                if (itemNotifier.hasFailures() && !session.isResponding() && healthy.decrementAndGet() > 0) {
+                    LOGGER.warn("Session on device '{}' lost, running {} on the other devices",
+                            session.getDeviceName(), item.name);
+                    queue.add(item);
+                    return;
+                }
+                itemNotifier.replay();
+                history.record(item.name, duration);
+                pending.decrementAndGet();
+            }
+        } finally {
+            CURRENT_SESSION.remove();
+        }
+    }
+
+    /**
+     * Test classes, and methods of classes with independent methods, longest first
+     *
+     * @param ignored Ignored methods of classes with independent methods are added here
+     */
+    private List<WorkItem> createWorkItems(TestDurationHistory history, List<Description> ignored) {
+        // Description lists only the children left after filtering
+        Set<Description> included = new HashSet<>(getDescription().getChildren());
+        List<WorkItem> items = new ArrayList<>();
+        for (Runner child : getChildren()) {
+            Description description = child.getDescription();
+            if (!included.contains(description)) {
+                continue;
+            }
+            Class<?> testClass = description.getTestClass();
+            String className = testClass != null ? testClass.getName() : description.getDisplayName();
+            if (testClass == null || !testClass.isAnnotationPresent(IndependentMethods.class)) {
+                items.add(new WorkItem(className, child, history.get(className)));
+                continue;
+            }
+            for (Description method : description.getChildren()) {
+                if (method.getAnnotation(Ignore.class) != null) {
+                    ignored.add(method);
+                    continue;
+                }
+                Runner runner = builder.safeRunnerForClass(testClass);
+                if (!method.isTest() || !(runner instanceof Filterable)) {
+                    continue;
+                }
+                try {
+                    ((Filterable) runner).filter(Filter.matchMethodDescription(method));
+                } catch (NoTestsRemainException ex) {
+                    continue;
+                }
+                String name = className + "#" + method.getMethodName();
+                items.add(new WorkItem(name, runner, history.get(name)));
+            }
+        }
+        // Stable, so tests of equal duration keep the order of the suite
+        items.sort((a, b) -> Long.compare(b.expectedDuration, a.expectedDuration));
+        return items;
+    }
+
+    private static File getTestDurationsFile() {
+        String file = System.getProperty(TESTDROID_TEST_DURATIONS);
+        return file != null ? new File(file) : new File(System.getProperty("user.home"), TEST_DURATIONS_FILE);
+    }
+
+    /**
+     * Notifier holding back the events of one work item, until it is known whether the item has to run again
+     */
+    private static final class BufferedRunNotifier extends RunNotifier {
+
+        private final RunNotifier notifier;
+
+        private final List<Consumer<RunNotifier>> events = new ArrayList<>();
+
+        private boolean failures;
+
+        BufferedRunNotifier(RunNotifier notifier) {
+            this.notifier = notifier;
+        }
+
+        boolean hasFailures() {
+            return failures;
+        }
+
+        void replay() {
+            for (Consumer<RunNotifier> event : events) {
+                event.accept(notifier);
+            }
+        }
+
+        @Override
+        public void fireTestStarted(Description description) {
+            events.add(n -> n.fireTestStarted(description));
+        }
+
+        @Override
+        public void fireTestFailure(Failure failure) {
+            failures = true;
+            events.add(n -> n.fireTestFailure(failure));
+        }
+
+        @Override
+        public void fireTestAssumptionFailed(Failure failure) {
+            events.add(n -> n.fireTestAssumptionFailed(failure));
+        }
+
+        @Override
+        public void fireTestIgnored(Description description) {
+            events.add(n -> n.fireTestIgnored(description));
+        }
+
+        @Override
+        public void fireTestFinished(Description description) {
+            events.add(n -> n.fireTestFinished(description));
+        }
+
+        @Override
+        public void pleaseStop() {
+            notifier.pleaseStop();
+        }
+    }
+
+    /**
+     * Notifier passing events of tests running in parallel to the listeners one at a time, as listeners of
+     * build tools and IDEs expect
+     */
+    private static final class SynchronizedRunNotifier extends RunNotifier {
+
+        private final RunNotifier notifier;
+
+        SynchronizedRunNotifier(RunNotifier notifier) {
+            this.notifier = notifier;
+        }
+
+        @Override
+        public synchronized void fireTestRunStarted(Description description) {
+            notifier.fireTestRunStarted(description);
+        }
+
+        @Override
+        public synchronized void fireTestRunFinished(Result result) {
+            notifier.fireTestRunFinished(result);
+        }
+
+        @Override
+        public synchronized void fireTestStarted(Description description) throws StoppedByUserException {
+            notifier.fireTestStarted(description);
+        }
+
+        @Override
+        public synchronized void fireTestFailure(Failure failure) {
+            notifier.fireTestFailure(failure);
+        }
+
+        @Override
+        public synchronized void fireTestAssumptionFailed(Failure failure) {
+            notifier.fireTestAssumptionFailed(failure);
+        }
+
+        @Override
+        public synchronized void fireTestIgnored(Description description) {
+            notifier.fireTestIgnored(description);
+        }
+
+        @Override
+        public synchronized void fireTestFinished(Description description) {
+            notifier.fireTestFinished(description);
+        }
+
+        @Override
+        public void pleaseStop() {
+            notifier.pleaseStop();
+        }
+    }
+}
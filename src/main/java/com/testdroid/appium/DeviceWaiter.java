@@ -0,0 +1,234 @@
+package com.testdroid.appium;
+
+import com.testdroid.api.DefaultAPIClient;
+import com.testdroid.api.dto.Context;
+import com.testdroid.api.model.APIDevice;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Finds devices and waits for locked devices to become free
+ * <p>
+ * Callers waiting for the same device search share one poll loop, which backs off exponentially with jitter while
+ * nothing changes. Each free device found is handed to one waiting caller in arrival order, so the callers do not
+ * all rush to the same device. A caller accepting several searches waits in the poll loop of each of them and gets
+ * the first matching device freed in any of them. Waiting ends when the returned future completes, times out or
+ * is cancelled.
+ * <p>
+ * A poll is one search query to the API, never polling more often than the device catalog is refreshed. Waits for
+ * any device accepted by a filter read the device catalog instead, which is reloaded in background while used.
+ */
+class DeviceWaiter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DeviceWaiter.class);
+
+    private static final long MIN_INTERVAL = DeviceCatalog.REFRESH_INTERVAL;
+    private static final long MAX_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    // Devices of a search polled at most, more than any device name matches
+    private static final int SEARCH_LIMIT = 100;
+
+    private static final DeviceWaiter INSTANCE = new DeviceWaiter();
+
+    private final ScheduledThreadPoolExecutor scheduler =
+            new ScheduledThreadPoolExecutor(4, ExecutionThreads.factory("DeviceWaiter"));
+
+    private final ConcurrentMap<Key, Poller> pollers = new ConcurrentHashMap<>();
+
+    private DeviceWaiter() {
+        // Timeouts of waits ended early are cancelled, and must not stay queued until they would have expired
+        scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    static DeviceWaiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Look up the searches from the device catalog
+     *
+     * @return Devices found by any of the searches and accepted by the filter, free devices first
+     */
+    List<APIDevice> findDevices(DefaultAPIClient api, List<String> searches, Predicate<APIDevice> filter)
+            throws Exception {
+        DeviceCatalog catalog = DeviceCatalog.getInstance(api);
+        Map<Long, APIDevice> found = new LinkedHashMap<>();
+        for (String search : searches) {
+            for (APIDevice device : catalog.search(search, DeviceCatalog.REFRESH_INTERVAL)) {
+                if (filter.test(device)) {
+                    found.putIfAbsent(device.getId(), device);
+                }
+            }
+        }
+        List<APIDevice> devices = new ArrayList<>(found.values());
+        devices.sort(Comparator.comparing(APIDevice::isLocked));
+        return devices;
+    }
+
+    /**
+     * Wait for a device found by any of the searches and accepted by the filter to become free
+     *
+     * @param polls Incremented each time devices are polled for this caller
+     * @return Future completed with the free device, or exceptionally with {@link TimeoutException} when the
+     * timeout expires. Cancel the future to stop waiting.
+     */
+    CompletableFuture<APIDevice> waitForDevice(DefaultAPIClient api, List<String> searches,
+            Predicate<APIDevice> filter, long timeout, TimeUnit unit, AtomicInteger polls) {
+        CompletableFuture<APIDevice> future = new CompletableFuture<>();
+        ScheduledFuture<?> timeoutTask = scheduler.schedule(() -> future.completeExceptionally(
+                new TimeoutException(String.format("No free %s within %d %s", searches, timeout, unit))),
+                timeout, unit);
+        future.whenComplete((device, ex) -> timeoutTask.cancel(false));
+        Waiter waiter = new Waiter(future, filter, polls);
+        for (String search : searches) {
+            // Added while holding the map entry, so that the poller is not removed meanwhile for having no waiters
+            pollers.compute(new Key(api, search), (key, poller) -> {
+                Poller current = poller != null ? poller : new Poller(key);
+                current.add(waiter);
+                return current;
+            });
+        }
+        return future;
+    }
+
+    private static long jitter(long interval) {
+        // Spread polls of different searches and processes evenly over the upper half of the interval
+        return interval / 2 + ThreadLocalRandom.current().nextLong(interval / 2 + 1);
+    }
+
+    private static final class Waiter {
+
+        private final CompletableFuture<APIDevice> future;
+
+        private final Predicate<APIDevice> filter;
+
+        private final AtomicInteger polls;
+
+        Waiter(CompletableFuture<APIDevice> future, Predicate<APIDevice> filter, AtomicInteger polls) {
+            this.future = future;
+            this.filter = filter;
+            this.polls = polls;
+        }
+
+        boolean isDone() {
+            return future.isDone();
+        }
+    }
+
+    private class Poller implements Runnable {
+
+        private final Key key;
+
+        private final Queue<Waiter> waiting = new ConcurrentLinkedQueue<>();
+
+        // Guarded by this
+        private long interval = MIN_INTERVAL;
+        private boolean scheduled;
+
+        Poller(Key key) {
+            this.key = key;
+        }
+
+        void add(Waiter waiter) {
+            waiting.add(waiter);
+            synchronized (this) {
+                if (!scheduled) {
+                    scheduled = true;
+                    interval = MIN_INTERVAL;
+                    scheduler.schedule(this, jitter(interval), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int handedOut = 0;
+            try {
+                waiting.removeIf(Waiter::isDone);
+                if (!waiting.isEmpty()) {
+                    handedOut = poll();
+                }
+            } catch (Exception ex) {
+                LOGGER.warn("Failed to query devices '{}', retrying", key.search, ex);
+            }
+            boolean backOff = handedOut == 0;
+            pollers.compute(key, (k, poller) -> {
+                synchronized (this) {
+                    waiting.removeIf(Waiter::isDone);
+                    if (waiting.isEmpty()) {
+                        // Removed, so that pollers of searches no longer waited for are not kept
+                        scheduled = false;
+                        return poller == this ? null : poller;
+                    }
+                    interval = backOff ? Math.min(interval * 2, MAX_INTERVAL) : MIN_INTERVAL;
+                    scheduler.schedule(this, jitter(interval), TimeUnit.MILLISECONDS);
+                    return poller;
+                }
+            });
+        }
+
+        private int poll() throws Exception {
+            List<APIDevice> devices = key.search.isEmpty()
+                    ? DeviceCatalog.getInstance(key.api).search("", DeviceCatalog.REFRESH_INTERVAL)
+                    : key.api.getDevices(new Context<>(APIDevice.class).setSearch(key.search).setLimit(SEARCH_LIMIT))
+                    .getEntity().getData();
+            for (Waiter waiter : waiting) {
+                waiter.polls.incrementAndGet();
+            }
+            int handedOut = 0;
+            for (APIDevice device : devices) {
+                if (device.isLocked()) {
+                    continue;
+                }
+                Iterator<Waiter> iterator = waiting.iterator();
+                while (iterator.hasNext()) {
+                    Waiter waiter = iterator.next();
+                    if (waiter.isDone()) {
+                        iterator.remove();
+                    } else if (waiter.filter.test(device) && waiter.future.complete(device)) {
+                        iterator.remove();
+                        handedOut++;
+                        break;
+                    }
+                }
+            }
+            LOGGER.debug("{} of {} '{}' handed out, {} waiting", handedOut, devices.size(), key.search,
+                    waiting.size());
+            return handedOut;
+        }
+    }
+
+    private static final class Key {
+
+        private final DefaultAPIClient api;
+
+        private final String search;
+
+        Key(DefaultAPIClient api, String search) {
+            this.api = api;
+            this.search = search;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return api == other.api && search.equals(other.search);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(api), search);
+        }
+    }
+}
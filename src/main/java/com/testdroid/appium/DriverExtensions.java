@@ -0,0 +1,137 @@
+package com.testdroid.appium;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Features of the Testdroid drivers on top of Appium, shared by the drivers of each platform
+ * <p>
+ * The drivers extend different Appium driver classes, so each holds one of these and forwards to it.
+ */
+class DriverExtensions {
+
+    private final RemoteWebDriver driver;
+
+    private final Supplier<String> screen; // Null if the driver cannot name the current screen
+
+    // Volatile, as tests may send commands from several threads
+    private volatile CommandMetrics commandMetrics;
+
+    private volatile ElementCache elementCache; // Optional, null when element lookups are not cached
+
+    private volatile PageSnapshot pageSnapshot; // Latest screen state, null when outdated
+
+    private AdaptiveWait waits;
+
+    /**
+     * @param screen Name of the current screen, for scoping cached elements and learned wait times, null if not
+     *               known
+     */
+    DriverExtensions(RemoteWebDriver driver, Supplier<String> screen) {
+        this.driver = driver;
+        this.screen = screen;
+    }
+
+    CommandMetrics getCommandMetrics() {
+        CommandMetrics metrics = commandMetrics;
+        if (metrics == null) {
+            synchronized (this) {
+                metrics = commandMetrics;
+                if (metrics == null) {
+                    metrics = new CommandLatencyHistogram();
+                    commandMetrics = metrics;
+                }
+            }
+        }
+        return metrics;
+    }
+
+    void setCommandMetrics(CommandMetrics commandMetrics) {
+        this.commandMetrics = commandMetrics;
+    }
+
+    /**
+     * Send the command through the element cache when enabled, and record its duration
+     */
+    Response execute(String command, Map<String, ?> parameters, ElementCache.CommandExecutor executor) {
+        long started = System.nanoTime();
+        try {
+            ElementCache cache = elementCache;
+            return cache != null ? cache.execute(command, parameters, executor) : executor.execute(command, parameters);
+        } finally {
+            if (PageSnapshot.mayChangeScreen(command)) {
+                pageSnapshot = null;
+            }
+            getCommandMetrics().record(command, System.nanoTime() - started);
+        }
+    }
+
+    WebElement findElement(String by, String using, BiFunction<String, String, WebElement> finder) {
+        ElementCache cache = elementCache;
+        return cache != null ? cache.find(by, using, finder) : finder.apply(by, using);
+    }
+
+    synchronized ElementCache enableElementCache() {
+        if (elementCache == null) {
+            elementCache = new ElementCache(screen);
+        }
+        return elementCache;
+    }
+
+    void disableElementCache() {
+        elementCache = null;
+    }
+
+    ElementCache getElementCache() {
+        return elementCache;
+    }
+
+    PageSnapshot getPageSnapshot() {
+        PageSnapshot snapshot = pageSnapshot;
+        if (snapshot == null) {
+            snapshot = refreshPageSnapshot();
+        }
+        return snapshot;
+    }
+
+    PageSnapshot refreshPageSnapshot() {
+        PageSnapshot snapshot = new PageSnapshot(driver, driver.getPageSource());
+        pageSnapshot = snapshot;
+        return snapshot;
+    }
+
+    synchronized AdaptiveWait waits() {
+        if (waits == null) {
+            waits = new AdaptiveWait(driver, this::getCommandMetrics, screen);
+        }
+        return waits;
+    }
+
+    Future<File> takeScreenshotAsync(String filePath) throws InterruptedException {
+        byte[] screenshot = driver.getScreenshotAs(OutputType.BYTES);
+        return ScreenshotWriter.getInstance().write(screenshot, new File(filePath), null, null);
+    }
+
+    CommandBatch batch() {
+        return new CommandBatch(driver);
+    }
+
+    /**
+     * Quit the session and close the command metrics, also when quitting fails
+     */
+    void quit(Runnable quit) {
+        try {
+            quit.run();
+        } finally {
+            getCommandMetrics().close();
+        }
+    }
+}
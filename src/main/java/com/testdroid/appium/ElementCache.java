@@ -0,0 +1,195 @@
+package com.testdroid.appium;
+
+import io.appium.java_client.MobileCommand;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebElement;
+import org.openqa.selenium.remote.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Cache of elements found by driver level lookups, enabled with {@code enableElementCache()} of the drivers
+ * <p>
+ * Repeated lookups with the same locator return the element found earlier without evaluating the locator on the
+ * device again. The cache is scoped: when the scope, for example the current Android activity, changes, or a
+ * navigation command is sent, all entries are dropped. A command failing because a cached element has gone stale
+ * finds the element again with its locator and is retried once with the new element.
+ */
+public class ElementCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ElementCache.class);
+
+    private static final Set<String> NAVIGATION_COMMANDS = new HashSet<>(Arrays.asList(
+            DriverCommand.GET, DriverCommand.GO_BACK, DriverCommand.GO_FORWARD, DriverCommand.REFRESH,
+            DriverCommand.SWITCH_TO_WINDOW, DriverCommand.SWITCH_TO_FRAME, DriverCommand.SWITCH_TO_PARENT_FRAME,
+            DriverCommand.SWITCH_TO_CONTEXT, DriverCommand.CLOSE, DriverCommand.QUIT,
+            MobileCommand.START_ACTIVITY, MobileCommand.LAUNCH_APP, MobileCommand.CLOSE_APP, MobileCommand.RESET,
+            MobileCommand.RUN_APP_IN_BACKGROUND, MobileCommand.INSTALL_APP, MobileCommand.REMOVE_APP));
+
+    /**
+     * Sends a command to the server, bypassing the cache
+     */
+    interface CommandExecutor {
+        Response execute(String command, Map<String, ?> parameters);
+    }
+
+    private static final class Locator {
+
+        private final String using;
+
+        private final String value;
+
+        Locator(String using, String value) {
+            this.using = using;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Locator)) {
+                return false;
+            }
+            Locator other = (Locator) o;
+            return using.equals(other.using) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(using, value);
+        }
+
+        @Override
+        public String toString() {
+            return using + ": " + value;
+        }
+    }
+
+    // Guarded by this
+    private final Map<Locator, RemoteWebElement> elements = new HashMap<>();
+    private final Map<String, Locator> locators = new HashMap<>();
+    private String scope;
+
+    private volatile Supplier<String> scopeSupplier;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    ElementCache(Supplier<String> scopeSupplier) {
+        this.scopeSupplier = scopeSupplier;
+    }
+
+    /**
+     * Set the scope of cached elements, checked on every lookup. Use null to rely on navigation commands and
+     * stale elements only.
+     */
+    public void setScope(Supplier<String> scopeSupplier) {
+        this.scopeSupplier = scopeSupplier;
+        invalidate();
+    }
+
+    /**
+     * @return Number of lookups answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return Number of lookups sent to the device
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return Number of stale cached elements found again
+     */
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    /**
+     * Drop all cached elements
+     */
+    public synchronized void invalidate() {
+        elements.clear();
+        locators.clear();
+    }
+
+    WebElement find(String using, String value, BiFunction<String, String, WebElement> finder) {
+        Supplier<String> supplier = scopeSupplier;
+        String currentScope = supplier != null ? supplier.get() : null;
+        Locator locator = new Locator(using, value);
+        synchronized (this) {
+            if (!Objects.equals(scope, currentScope)) {
+                invalidate();
+                scope = currentScope;
+            }
+            RemoteWebElement element = elements.get(locator);
+            if (element != null) {
+                hits.incrementAndGet();
+                return element;
+            }
+        }
+        misses.incrementAndGet();
+        WebElement element = finder.apply(using, value);
+        if (element instanceof RemoteWebElement) {
+            synchronized (this) {
+                if (Objects.equals(scope, currentScope)) {
+                    elements.put(locator, (RemoteWebElement) element);
+                    locators.put(((RemoteWebElement) element).getId(), locator);
+                }
+            }
+        }
+        return element;
+    }
+
+    Response execute(String command, Map<String, ?> parameters, CommandExecutor executor) {
+        if (NAVIGATION_COMMANDS.contains(command)) {
+            try {
+                return executor.execute(command, parameters);
+            } finally {
+                invalidate();
+            }
+        }
+        try {
+            return executor.execute(command, parameters);
+        } catch (StaleElementReferenceException ex) {
+            Object id = parameters != null ? parameters.get("id") : null;
+            RemoteWebElement element;
+            Locator locator;
+            synchronized (this) {
+                locator = locators.remove(id);
+                element = locator != null ? elements.remove(locator) : null;
+            }
+            if (element == null) {
+                throw ex;
+            }
+            LOGGER.debug("Cached element {} is stale, finding it again", locator);
+            Map<String, Object> find = new HashMap<>();
+            find.put("using", locator.using);
+            find.put("value", locator.value);
+            RemoteWebElement found = (RemoteWebElement) executor.execute(DriverCommand.FIND_ELEMENT, find).getValue();
+            refreshes.incrementAndGet();
+            // Element objects held by the test keep working with the new id
+            element.setId(found.getId());
+            synchronized (this) {
+                elements.put(locator, element);
+                locators.put(element.getId(), locator);
+            }
+            Map<String, Object> retry = new HashMap<>(parameters);
+            retry.put("id", element.getId());
+            return executor.execute(command, retry);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.testdroid.appium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factories for background work, creating virtual threads when enabled and the JVM supports them
+ * <p>
+ * Virtual threads need Java 21. They are created through reflection, so that the client still runs on Java 8.
+ * Shared background executors, like screenshot writing, screenshot hashing and device polling, use virtual threads
+ * when the system property testdroid.virtualThreads is true. Clients additionally have their own setting for
+ * starting sessions, see {@link TestdroidAppiumClient#setVirtualThreads(boolean)}.
+ */
+final class ExecutionThreads {
+
+    static final String VIRTUAL_THREADS_PROPERTY = "testdroid.virtualThreads";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionThreads.class);
+
+    // Thread.ofVirtual(), and name(String, long) and factory() of Thread.Builder, null before Java 21
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+        } catch (ReflectiveOperationException ex) {
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+    }
+
+    private static volatile boolean unsupportedLogged;
+
+    private ExecutionThreads() {
+    }
+
+    static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * @return Whether shared background executors use virtual threads
+     */
+    static boolean isVirtualThreadsDefault() {
+        return Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+    }
+
+    /**
+     * Factory of threads named name-1, name-2 and so on, following testdroid.virtualThreads
+     */
+    static ThreadFactory factory(String name) {
+        return factory(name, isVirtualThreadsDefault());
+    }
+
+    /**
+     * Factory of threads named name-1, name-2 and so on. Platform threads are daemon threads, so that background
+     * work never keeps the JVM running, and virtual threads are always daemon threads.
+     *
+     * @param virtual Create virtual threads if supported, platform threads otherwise
+     */
+    static ThreadFactory factory(String name, boolean virtual) {
+        if (virtual) {
+            if (isVirtualThreadsSupported()) {
+                try {
+                    Object builder = BUILDER_NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+                    return (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+                } catch (ReflectiveOperationException ex) {
+                    LOGGER.warn("Unable to create virtual threads, using platform threads", ex);
+                }
+            } else if (!unsupportedLogged) {
+                unsupportedLogged = true;
+                LOGGER.warn("Virtual threads need Java 21 or newer, using platform threads on Java {}",
+                        System.getProperty("java.version"));
+            }
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
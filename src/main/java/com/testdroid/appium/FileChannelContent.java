@@ -0,0 +1,79 @@
+package com.testdroid.appium;
+
+import com.google.api.client.http.AbstractHttpContent;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HTTP content streaming a file to the connection in fixed size chunks read with {@link FileChannel}
+ * <p>
+ * Memory use is bounded by the chunk size regardless of the file size, and progress is reported after every chunk.
+ */
+class FileChannelContent extends AbstractHttpContent {
+
+    private final File file;
+
+    private final int chunkSize;
+
+    private final UploadProgressListener listener;
+
+    private long bytesSent;
+
+    FileChannelContent(String type, File file, int chunkSize, UploadProgressListener listener) {
+        super(type);
+        this.file = file;
+        this.chunkSize = chunkSize;
+        this.listener = listener;
+    }
+
+    @Override
+    public long getLength() {
+        return file.length();
+    }
+
+    @Override
+    public boolean retrySupported() {
+        return true;
+    }
+
+    /**
+     * @return Bytes written by the latest call to {@link #writeTo(OutputStream)}
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        bytesSent = 0;
+        long total = file.length();
+        long started = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+        WritableByteChannel target = Channels.newChannel(out);
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    bytesSent += target.write(buffer);
+                }
+                buffer.clear();
+                if (listener != null) {
+                    listener.onProgress(bytesSent, total, bytesPerSecond(bytesSent, started));
+                }
+            }
+        }
+        out.flush();
+    }
+
+    static double bytesPerSecond(long bytes, long startedNanos) {
+        long elapsed = System.nanoTime() - startedNanos;
+        return elapsed > 0 ? bytes * 1e9 / elapsed : 0;
+    }
+}
@@ -4,23 +4,39 @@ import javax.swing.*;
 import java.awt.*;
 
 /**
+ * Panel drawing an image scaled to fit the panel, keeping its aspect ratio
+ *
  * @author Jarno Tuovinen <jarno.tuovinen@bitbar.com>
  */
-// @TODO make screenshot displaying to fit to screen, reuse the frame
 class ImagePanel extends JPanel {
     private Image img;
 
-    public ImagePanel(Image image) {
-        this.img = image;
-        Dimension size = new Dimension(image.getWidth(null), image.getHeight(null));
-        setPreferredSize(size);
-        setMinimumSize(size);
-        setMaximumSize(size);
-        setSize(size);
+    public ImagePanel() {
         setLayout(null);
     }
 
+    /**
+     * Replace the image, must be called in the event dispatch thread
+     */
+    public void setImage(Image image) {
+        this.img = image;
+        setPreferredSize(new Dimension(image.getWidth(null), image.getHeight(null)));
+        repaint();
+    }
+
     public void paintComponent(Graphics g) {
-        g.drawImage(img, 0, 0, null);
+        super.paintComponent(g);
+        if (img == null) {
+            return;
+        }
+        int width = img.getWidth(null);
+        int height = img.getHeight(null);
+        double scale = Math.min(1.0, Math.min((double) getWidth() / width, (double) getHeight() / height));
+        int scaledWidth = (int) (width * scale);
+        int scaledHeight = (int) (height * scale);
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(img, (getWidth() - scaledWidth) / 2, (getHeight() - scaledHeight) / 2, scaledWidth,
+                scaledHeight, null);
     }
 }
@@ -0,0 +1,342 @@
+package com.testdroid.appium;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.api.client.http.*;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads output files of finished device sessions, like logs, screenshots and videos, from Testdroid Cloud
+ * <p>
+ * Files of all clients are downloaded in parallel by a bounded pool and streamed straight to disk. A file being
+ * downloaded is kept with a .part suffix, so an interrupted download is resumed with a range request, and files
+ * already present with the right size are skipped. When the server tags a file with an MD5 ETag, the downloaded
+ * file is verified against it.
+ */
+class OutputFileDownloader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OutputFileDownloader.class);
+
+    private static final int THREADS = 4;
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String CLIENT_ID = "testdroid-cloud-api";
+
+    private static final Pattern MD5 = Pattern.compile("[0-9a-f]{32}");
+
+    private static final ExecutorService EXECUTOR =
+            Executors.newFixedThreadPool(THREADS, ExecutionThreads.factory("OutputFileDownloader"));
+
+    private static final class RemoteFile {
+
+        private final long id;
+
+        private final String name;
+
+        private final long size; // -1 if not known
+
+        RemoteFile(long id, String name, long size) {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+        }
+    }
+
+    private final String cloudUrl;
+
+    private final String username;
+
+    private final String password;
+
+    private final File directory;
+
+    private final PooledHttpTransport transport;
+
+    // Guarded by this
+    private String accessToken;
+
+    /**
+     * @param directory Directory to download to, each device session gets a directory of its own in it
+     */
+    OutputFileDownloader(String cloudUrl, String username, String password, File directory,
+            PooledHttpTransport transport) {
+        this.cloudUrl = cloudUrl;
+        this.username = username;
+        this.password = password;
+        this.directory = directory;
+        this.transport = transport;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Download all output files of a device session
+     *
+     * @return Future completed with the local files once all have been downloaded
+     */
+    CompletableFuture<List<File>> download(long projectId, long testRunId, long deviceSessionId,
+            String deviceName) {
+        File sessionDirectory = new File(directory, toFileName(deviceName + "-" + deviceSessionId));
+        String filesUrl = String.format("%s/api/v2/me/projects/%d/runs/%d/device-sessions/%d/output-file-set/files",
+                cloudUrl, projectId, testRunId, deviceSessionId);
+        // Listing and each file are tasks of their own, so no task waits for another in the bounded pool
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return listFiles(filesUrl);
+            } catch (IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, EXECUTOR).thenCompose(remoteFiles -> {
+            List<String> fileNames = toFileNames(remoteFiles);
+            List<CompletableFuture<File>> downloads = new ArrayList<>();
+            for (int i = 0; i < remoteFiles.size(); i++) {
+                RemoteFile remoteFile = remoteFiles.get(i);
+                File target = new File(sessionDirectory, fileNames.get(i));
+                downloads.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return download(remoteFile, target);
+                    } catch (IOException | InterruptedException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }, EXECUTOR));
+            }
+            return CompletableFuture.allOf(downloads.toArray(new CompletableFuture[0])).thenApply(done -> {
+                List<File> files = new ArrayList<>();
+                for (CompletableFuture<File> download : downloads) {
+                    files.add(download.join());
+                }
+                LOGGER.info("Downloaded {} output files of {} #{} to {}", files.size(), deviceName,
+                        deviceSessionId, sessionDirectory.getAbsolutePath());
+                return files;
+            });
+        });
+    }
+
+    private List<RemoteFile> listFiles(String filesUrl) throws IOException {
+        List<RemoteFile> files = new ArrayList<>();
+        for (int offset = 0; ; offset += PAGE_SIZE) {
+            HttpResponse response = get(String.format("%s?offset=%d&limit=%d", filesUrl, offset, PAGE_SIZE), 0);
+            JsonNode page;
+            try {
+                if (!response.isSuccessStatusCode()) {
+                    throw new HttpResponseException(response);
+                }
+                page = TestdroidAppiumClient.OBJECT_MAPPER.readTree(response.getContent());
+            } finally {
+                response.disconnect();
+            }
+            JsonNode data = page.path("data");
+            for (JsonNode file : data) {
+                files.add(new RemoteFile(file.path("id").asLong(), file.path("name").asText("file-"
+                        + file.path("id").asLong()), file.path("size").asLong(-1)));
+            }
+            if (data.size() < PAGE_SIZE || offset + PAGE_SIZE >= page.path("total").asLong(Long.MAX_VALUE)) {
+                return files;
+            }
+        }
+    }
+
+    /**
+     * Local names of the files, unique also on case-insensitive file systems and with the part suffix added. Files
+     * whose name is taken get their id added, so each file keeps its name when downloaded again.
+     */
+    private static List<String> toFileNames(List<RemoteFile> remoteFiles) {
+        Set<String> taken = new HashSet<>();
+        List<String> fileNames = new ArrayList<>(remoteFiles.size());
+        for (RemoteFile remoteFile : remoteFiles) {
+            String fileName = toFileName(remoteFile.name);
+            String suffix = "-" + remoteFile.id;
+            while (!take(taken, fileName)) {
+                int extension = fileName.lastIndexOf('.');
+                fileName = extension > 0 ? fileName.substring(0, extension) + suffix + fileName.substring(extension)
+                        : fileName + suffix;
+            }
+            fileNames.add(fileName);
+        }
+        return fileNames;
+    }
+
+    private static boolean take(Set<String> taken, String fileName) {
+        String key = fileName.toLowerCase(Locale.ENGLISH);
+        if (taken.contains(key) || taken.contains(key + PART_SUFFIX)) {
+            return false;
+        }
+        taken.add(key);
+        taken.add(key + PART_SUFFIX);
+        return true;
+    }
+
+    private File download(RemoteFile remoteFile, File target) throws IOException, InterruptedException {
+        File sessionDirectory = target.getParentFile();
+        if (target.isFile() && (remoteFile.size < 0 || target.length() == remoteFile.size)) {
+            LOGGER.debug("Output file {} already downloaded", target);
+            return target;
+        }
+        if (!sessionDirectory.isDirectory() && !sessionDirectory.mkdirs()) {
+            throw new IOException("Unable to create directory " + sessionDirectory);
+        }
+        File part = new File(sessionDirectory, target.getName() + PART_SUFFIX);
+        String contentUrl = String.format("%s/api/v2/me/files/%d/file", cloudUrl, remoteFile.id);
+        for (int attempt = 1; ; attempt++) {
+            try {
+                downloadPart(contentUrl, part, remoteFile.size);
+                try {
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException ex) {
+                    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                return target;
+            } catch (IOException ex) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    throw ex;
+                }
+                LOGGER.warn("Download of {} failed after {} bytes, retry {}/{}", target, part.length(), attempt,
+                        MAX_ATTEMPTS - 1, ex);
+                Thread.sleep(TimeUnit.SECONDS.toMillis(1L << attempt));
+            }
+        }
+    }
+
+    /**
+     * Download the file to the part file, continuing from what the part file already has
+     */
+    private void downloadPart(String contentUrl, File part, long size) throws IOException {
+        long offset = part.isFile() ? part.length() : 0;
+        HttpResponse response = get(contentUrl, offset);
+        try {
+            int status = response.getStatusCode();
+            if (status == 416 && offset > 0 && (size < 0 || offset == size)) {
+                // Nothing left to download
+                LOGGER.debug("{} already complete", part);
+            } else if (status == 200 || status == 206 && offset > 0) {
+                long position = status == 206 ? offset : 0;
+                try (FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                     InputStream content = response.getContent();
+                     ReadableByteChannel in = Channels.newChannel(content)) {
+                    out.truncate(position);
+                    long transferred;
+                    while ((transferred = out.transferFrom(in, position, TRANSFER_SIZE)) > 0) {
+                        position += transferred;
+                    }
+                }
+            } else {
+                if (status == 416) {
+                    // Part file does not match the file on the server
+                    Files.deleteIfExists(part.toPath());
+                }
+                throw new HttpResponseException(response);
+            }
+        } finally {
+            response.disconnect();
+        }
+        if (size >= 0 && part.length() != size) {
+            if (part.length() > size) {
+                Files.deleteIfExists(part.toPath());
+            }
+            throw new IOException(String.format("Downloaded %d of %d bytes of %s", part.length(), size, contentUrl));
+        }
+        verifyChecksum(part, response.getHeaders().getETag());
+    }
+
+    private static void verifyChecksum(File part, String eTag) throws IOException {
+        String checksum = eTag != null ? eTag.replaceFirst("^W/", "").replace("\"", "").toLowerCase() : "";
+        if (!MD5.matcher(checksum).matches()) {
+            return;
+        }
+        String md5;
+        try (InputStream in = Files.newInputStream(part.toPath())) {
+            md5 = DigestUtils.md5Hex(in);
+        }
+        if (!md5.equals(checksum)) {
+            // Resumed on top of a different version of the file, start over
+            Files.deleteIfExists(part.toPath());
+            throw new IOException(String.format("Checksum %s of %s does not match %s", md5, part, checksum));
+        }
+    }
+
+    /**
+     * GET from the API, renewing the access token once if it has expired
+     *
+     * @param offset Byte offset to continue download from, 0 for whole content
+     */
+    private HttpResponse get(String url, long offset) throws IOException {
+        for (boolean renew = false; ; renew = true) {
+            HttpRequest request = transport.getUploadTransport().createRequestFactory().buildGetRequest(
+                    new GenericUrl(url));
+            request.setConnectTimeout(transport.getConnectTimeout()).setReadTimeout(transport.getReadTimeout())
+                    .setThrowExceptionOnExecuteError(false).setNumberOfRetries(0);
+            // Byte ranges refer to the file as is, not to a compressed response
+            request.getHeaders().setAuthorization("Bearer " + getAccessToken(renew)).setAcceptEncoding("identity");
+            if (offset > 0) {
+                request.getHeaders().setRange("bytes=" + offset + "-");
+            }
+            HttpResponse response = request.execute();
+            if (response.getStatusCode() != 401 || renew) {
+                return response;
+            }
+            response.disconnect();
+        }
+    }
+
+    private synchronized String getAccessToken(boolean renew) throws IOException {
+        if (accessToken == null || renew) {
+            Map<String, String> parameters = new LinkedHashMap<>();
+            parameters.put("client_id", CLIENT_ID);
+            parameters.put("grant_type", "password");
+            parameters.put("username", username);
+            parameters.put("password", password);
+            HttpResponse response = transport.getUploadTransport().createRequestFactory()
+                    .buildPostRequest(new GenericUrl(cloudUrl + "/oauth/token"), new UrlEncodedContent(parameters))
+                    .setConnectTimeout(transport.getConnectTimeout()).setReadTimeout(transport.getReadTimeout())
+                    .execute();
+            try {
+                accessToken = TestdroidAppiumClient.OBJECT_MAPPER.readTree(response.getContent())
+                        .path("access_token").asText(null);
+            } finally {
+                response.disconnect();
+            }
+            if (accessToken == null) {
+                throw new IOException("No access token received for " + username);
+            }
+        }
+        return accessToken;
+    }
+
+    /**
+     * Name usable as file name on any platform
+     */
+    static String toFileName(String name) {
+        String fileName = name.replaceAll("[^A-Za-z0-9._-]+", "_");
+        return fileName.isEmpty() || fileName.startsWith(".") ? "_" + fileName : fileName;
+    }
+}
@@ -0,0 +1,318 @@
+package com.testdroid.appium;
+
+import io.appium.java_client.MobileBy;
+import io.appium.java_client.MobileCommand;
+import org.openqa.selenium.By;
+import org.openqa.selenium.InvalidSelectorException;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Page source of one screen state, parsed for answering XPath queries locally
+ * <p>
+ * Checking whether an element exists or reading its text from a snapshot costs no round trip to the device. Only
+ * {@link #findElement(String)} talks to the device, and it finds the element with its resource id or accessibility
+ * id when one of those identifies the element uniquely, as those are much cheaper for the device than XPath.
+ * <p>
+ * The page source is parsed into a compact tree, and the XPath subset used by Appium locators is evaluated on it
+ * directly, see {@link SnapshotXPath}. Other expressions are evaluated with the XPath implementation of the JDK
+ * on a DOM built on first need.
+ * <p>
+ * Get snapshots with {@code getPageSnapshot()} of the drivers, which reuse the snapshot until a command that may
+ * change the screen is sent. Changes made by the application itself, like finished loading, are not noticed, use
+ * {@code refreshPageSnapshot()} for those.
+ */
+public class PageSnapshot {
+
+    // Commands that never change what is on the screen
+    private static final Set<String> READ_ONLY_COMMANDS = new HashSet<>(Arrays.asList(
+            DriverCommand.STATUS, DriverCommand.GET_CAPABILITIES, DriverCommand.FIND_ELEMENT,
+            DriverCommand.FIND_ELEMENTS, DriverCommand.FIND_CHILD_ELEMENT, DriverCommand.FIND_CHILD_ELEMENTS,
+            DriverCommand.GET_ELEMENT_TEXT, DriverCommand.GET_ELEMENT_TAG_NAME, DriverCommand.GET_ELEMENT_ATTRIBUTE,
+            DriverCommand.IS_ELEMENT_SELECTED, DriverCommand.IS_ELEMENT_ENABLED, DriverCommand.IS_ELEMENT_DISPLAYED,
+            DriverCommand.GET_ELEMENT_LOCATION, DriverCommand.GET_ELEMENT_SIZE,
+            DriverCommand.GET_ELEMENT_VALUE_OF_CSS_PROPERTY, DriverCommand.ELEMENT_EQUALS,
+            DriverCommand.GET_PAGE_SOURCE, DriverCommand.GET_TITLE, DriverCommand.GET_CURRENT_URL,
+            DriverCommand.SCREENSHOT, DriverCommand.ELEMENT_SCREENSHOT, DriverCommand.GET_SCREEN_ORIENTATION,
+            DriverCommand.GET_CONTEXT_HANDLES, DriverCommand.GET_CURRENT_CONTEXT_HANDLE,
+            DriverCommand.GET_WINDOW_HANDLES, DriverCommand.GET_CURRENT_WINDOW_HANDLE, DriverCommand.GET_WINDOW_SIZE,
+            DriverCommand.IMPLICITLY_WAIT, DriverCommand.SET_TIMEOUT, DriverCommand.SET_SCRIPT_TIMEOUT,
+            DriverCommand.GET_AVAILABLE_LOG_TYPES, DriverCommand.GET_LOG, DriverCommand.GET_NETWORK_CONNECTION,
+            MobileCommand.CURRENT_ACTIVITY, MobileCommand.IS_APP_INSTALLED, MobileCommand.IS_LOCKED,
+            MobileCommand.GET_SETTINGS, MobileCommand.GET_STRINGS));
+
+    // Attributes holding the text of an element, Android first, then iOS
+    private static final String[] TEXT_ATTRIBUTES = {"text", "value", "label", "name"};
+
+    // Attributes usable for finding an element cheaply on the device, if unique on the screen
+    private static final Map<String, Function<String, By>> ID_ATTRIBUTES = new LinkedHashMap<>();
+
+    static {
+        ID_ATTRIBUTES.put("resource-id", By::id);
+        ID_ATTRIBUTES.put("content-desc", MobileBy::AccessibilityId);
+        ID_ATTRIBUTES.put("name", MobileBy::AccessibilityId);
+    }
+
+    private static final SAXParserFactory SAX_PARSER_FACTORY = SAXParserFactory.newInstance();
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+
+    static {
+        try {
+            SAX_PARSER_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            DOCUMENT_BUILDER_FACTORY.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        } catch (ParserConfigurationException | SAXException ex) {
+            throw new IllegalStateException(ex);
+        }
+        DOCUMENT_BUILDER_FACTORY.setExpandEntityReferences(false);
+    }
+
+    // XPath objects are not thread safe
+    private static final ThreadLocal<XPath> XPATH =
+            ThreadLocal.withInitial(() -> XPathFactory.newInstance().newXPath());
+
+    private final RemoteWebDriver driver;
+
+    private final String source;
+
+    private final SnapshotNode document;
+
+    private final int size;
+
+    // Number of elements having each value of each id attribute
+    private final Map<String, Map<String, Integer>> idCounts = new HashMap<>();
+
+    // Built on first query not supported by SnapshotXPath, guarded by this
+    private Document dom;
+    private Map<Node, SnapshotNode> domNodes;
+
+    /**
+     * Parse page source
+     *
+     * @param driver Driver used for finding elements on the device
+     */
+    public PageSnapshot(RemoteWebDriver driver, String source) {
+        this.driver = driver;
+        this.source = source;
+        TreeBuilder builder = new TreeBuilder();
+        try {
+            SAX_PARSER_FACTORY.newSAXParser().parse(new InputSource(new StringReader(source)), builder);
+        } catch (ParserConfigurationException | SAXException | IOException ex) {
+            throw new WebDriverException("Unable to parse page source", ex);
+        }
+        document = builder.document;
+        size = builder.count;
+    }
+
+    /**
+     * Builds the snapshot tree, interning names and counting id attributes
+     */
+    private class TreeBuilder extends DefaultHandler {
+
+        private final SnapshotNode document = new SnapshotNode(null, null, null, 0);
+
+        private final Map<String, String> names = new HashMap<>();
+
+        private final Deque<StringBuilder> texts = new ArrayDeque<>();
+
+        private SnapshotNode current = document;
+
+        private int count;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            String[] values = new String[attributes.getLength() * 2];
+            for (int i = 0; i < attributes.getLength(); i++) {
+                String name = names.computeIfAbsent(attributes.getQName(i), Function.identity());
+                values[i * 2] = name;
+                values[i * 2 + 1] = attributes.getValue(i);
+                if (ID_ATTRIBUTES.containsKey(name) && !attributes.getValue(i).isEmpty()) {
+                    idCounts.computeIfAbsent(name, k -> new HashMap<>()).merge(attributes.getValue(i), 1,
+                            Integer::sum);
+                }
+            }
+            SnapshotNode node = new SnapshotNode(names.computeIfAbsent(qName, Function.identity()), values, current,
+                    ++count);
+            current.addChild(node);
+            current = node;
+            texts.push(new StringBuilder());
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (!texts.isEmpty()) {
+                texts.peek().append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            String text = texts.pop().toString();
+            // Drop indentation
+            current.text = text.trim().isEmpty() ? "" : text;
+            current.end = count;
+            current = current.parent;
+        }
+
+        @Override
+        public void endDocument() {
+            document.end = count;
+        }
+    }
+
+    /**
+     * @return Whether a command may change the screen, making earlier snapshots outdated
+     */
+    static boolean mayChangeScreen(String command) {
+        return !READ_ONLY_COMMANDS.contains(command);
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Number of elements on the screen
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean exists(String xpath) {
+        return !evaluate(xpath).isEmpty();
+    }
+
+    public int count(String xpath) {
+        return evaluate(xpath).size();
+    }
+
+    /**
+     * @return Text of the first matching element, from the first non-empty text attribute
+     * @throws NoSuchElementException if no element matches
+     */
+    public String getText(String xpath) {
+        return getText(first(xpath));
+    }
+
+    /**
+     * @return Text of each matching element
+     */
+    public List<String> getTexts(String xpath) {
+        List<String> texts = new ArrayList<>();
+        for (SnapshotNode node : evaluate(xpath)) {
+            texts.add(getText(node));
+        }
+        return texts;
+    }
+
+    /**
+     * @return Attribute of the first matching element, or null if the element does not have it
+     * @throws NoSuchElementException if no element matches
+     */
+    public String getAttribute(String xpath, String name) {
+        return first(xpath).getAttribute(name);
+    }
+
+    /**
+     * Find the first matching element on the device, with a unique resource id or accessibility id of the element
+     * when it has one and with the XPath otherwise
+     *
+     * @throws NoSuchElementException if no element matches in this snapshot
+     */
+    public WebElement findElement(String xpath) {
+        SnapshotNode node = first(xpath);
+        for (Map.Entry<String, Function<String, By>> attribute : ID_ATTRIBUTES.entrySet()) {
+            String value = node.getAttribute(attribute.getKey());
+            if (value != null && !value.isEmpty() && idCounts.get(attribute.getKey()).get(value) == 1) {
+                return driver.findElement(attribute.getValue().apply(value));
+            }
+        }
+        return driver.findElement(By.xpath(xpath));
+    }
+
+    private static String getText(SnapshotNode node) {
+        for (String attribute : TEXT_ATTRIBUTES) {
+            String value = node.getAttribute(attribute);
+            if (value != null && !value.isEmpty()) {
+                return value;
+            }
+        }
+        return node.getTextContent().trim();
+    }
+
+    private SnapshotNode first(String xpath) {
+        List<SnapshotNode> nodes = evaluate(xpath);
+        if (nodes.isEmpty()) {
+            throw new NoSuchElementException("No element matches " + xpath + " in page snapshot");
+        }
+        return nodes.get(0);
+    }
+
+    private List<SnapshotNode> evaluate(String xpath) {
+        SnapshotXPath compiled = SnapshotXPath.compile(xpath);
+        return compiled != null ? compiled.evaluate(document) : evaluateWithDom(xpath);
+    }
+
+    private synchronized List<SnapshotNode> evaluateWithDom(String xpath) {
+        if (dom == null) {
+            try {
+                dom = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder().parse(new InputSource(new StringReader(source)));
+            } catch (ParserConfigurationException | SAXException | IOException ex) {
+                throw new WebDriverException("Unable to parse page source", ex);
+            }
+            domNodes = new IdentityHashMap<>();
+            mapDomNodes(dom, document);
+        }
+        NodeList nodes;
+        try {
+            nodes = (NodeList) XPATH.get().evaluate(xpath, dom, XPathConstants.NODESET);
+        } catch (XPathExpressionException ex) {
+            throw new InvalidSelectorException("Invalid XPath " + xpath, ex);
+        }
+        List<SnapshotNode> found = new ArrayList<>(nodes.getLength());
+        for (int i = 0; i < nodes.getLength(); i++) {
+            SnapshotNode node = domNodes.get(nodes.item(i));
+            if (node != null) {
+                found.add(node);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Pair DOM elements with snapshot elements, both trees have the same elements in the same order
+     */
+    private void mapDomNodes(Node domNode, SnapshotNode node) {
+        domNodes.put(domNode, node);
+        int index = 0;
+        for (Node child = domNode.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                mapDomNodes(child, node.children.get(index++));
+            }
+        }
+    }
+}
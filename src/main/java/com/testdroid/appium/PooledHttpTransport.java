@@ -0,0 +1,224 @@
+package com.testdroid.appium;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
+import io.appium.java_client.MobileCommand;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.HttpCommandExecutor;
+import org.openqa.selenium.remote.internal.ApacheHttpClient;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pooled keep-alive HTTP client shared by application uploads and Appium commands
+ * <p>
+ * Connections are kept open and reused between requests, limited per host, and JSON responses are requested
+ * gzip compressed. Clients with the same settings share one pool.
+ */
+class PooledHttpTransport {
+
+    private static final Map<String, PooledHttpTransport> TRANSPORTS = new HashMap<>();
+
+    private static final int VALIDATE_AFTER_INACTIVITY = (int) TimeUnit.SECONDS.toMillis(2);
+
+    // Commands Appium adds to the WebDriver protocol, which the executors of Selenium do not know by default
+    private static final Set<String> APPIUM_COMMANDS = getAppiumCommands();
+
+    private final int connectTimeout;
+
+    private final int readTimeout;
+
+    private final CloseableHttpClient httpClient;
+
+    private final HttpTransport uploadTransport;
+
+    private final SharedHttpClientFactory commandClientFactory;
+
+    private PooledHttpTransport(int maxConnectionsPerHost, int connectTimeout, int readTimeout) {
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+        connectionManager.setMaxTotal(maxConnectionsPerHost * 2); // Appium hub and upload broker
+        // Connections idle for a while may have been closed by the server or a proxy
+        connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+        httpClient = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(readTimeout)
+                        .build())
+                // Selenium follows redirects itself, and commands must never be sent twice
+                .disableRedirectHandling()
+                .disableAutomaticRetries()
+                .build();
+        uploadTransport = new ApacheHttpTransport(new ParamsHttpClient(httpClient));
+        commandClientFactory = new SharedHttpClientFactory(httpClient);
+    }
+
+    /**
+     * @param maxConnectionsPerHost Maximum number of open connections to one host
+     * @param connectTimeout        Connect timeout in milliseconds
+     * @param readTimeout           Socket read timeout in milliseconds
+     */
+    static synchronized PooledHttpTransport get(int maxConnectionsPerHost, int connectTimeout, int readTimeout) {
+        String key = String.format("%d/%d/%d", maxConnectionsPerHost, connectTimeout, readTimeout);
+        return TRANSPORTS.computeIfAbsent(key,
+                k -> new PooledHttpTransport(maxConnectionsPerHost, connectTimeout, readTimeout));
+    }
+
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    int getReadTimeout() {
+        return readTimeout;
+    }
+
+    HttpTransport getUploadTransport() {
+        return uploadTransport;
+    }
+
+    /**
+     * Command executor sending the commands of a driver through this pool
+     * <p>
+     * Appium drivers cannot be given a command executor, so the drivers of this library replace theirs with this
+     * once the session has started. Commands added by Appium are still sent with the executor of Appium, as only
+     * it knows their URLs.
+     *
+     * @param appiumExecutor Executor the driver was created with
+     */
+    CommandExecutor createCommandExecutor(CommandExecutor appiumExecutor) {
+        if (!(appiumExecutor instanceof HttpCommandExecutor)) {
+            return appiumExecutor;
+        }
+        HttpCommandExecutor pooledExecutor = new HttpCommandExecutor(Collections.emptyMap(),
+                ((HttpCommandExecutor) appiumExecutor).getAddressOfRemoteServer(), commandClientFactory);
+        return command -> APPIUM_COMMANDS.contains(command.getName())
+                ? appiumExecutor.execute(command) : pooledExecutor.execute(command);
+    }
+
+    private static Set<String> getAppiumCommands() {
+        Set<String> commands = new HashSet<>();
+        try {
+            for (Field field : MobileCommand.class.getFields()) {
+                if (field.getType() == String.class) {
+                    commands.add((String) field.get(null));
+                }
+            }
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Unable to list Appium commands", ex);
+        }
+        return Collections.unmodifiableSet(commands);
+    }
+
+    /**
+     * Selenium client factory handing out the pooled client
+     * <p>
+     * Server URLs with user info need a client with credentials of its own, those are left to the default factory
+     * of Selenium, which is only created when first needed.
+     */
+    private static class SharedHttpClientFactory implements org.openqa.selenium.remote.http.HttpClient.Factory {
+
+        private final CloseableHttpClient httpClient;
+
+        SharedHttpClientFactory(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+        }
+
+        @Override
+        public org.openqa.selenium.remote.http.HttpClient createClient(URL url) {
+            if (url.getUserInfo() != null) {
+                return new ApacheHttpClient.Factory().createClient(url);
+            }
+            return new ApacheHttpClient(httpClient, url);
+        }
+    }
+
+    /**
+     * Client exposing modifiable parameters, which the upload transport sets on construction but the pooled
+     * client does not support
+     */
+    private static class ParamsHttpClient implements HttpClient {
+
+        private final CloseableHttpClient delegate;
+
+        private final HttpParams params = new BasicHttpParams();
+
+        ParamsHttpClient(CloseableHttpClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HttpParams getParams() {
+            return params;
+        }
+
+        @Override
+        @Deprecated
+        public ClientConnectionManager getConnectionManager() {
+            return delegate.getConnectionManager();
+        }
+
+        @Override
+        public HttpResponse execute(HttpUriRequest request) throws IOException {
+            return delegate.execute(request);
+        }
+
+        @Override
+        public HttpResponse execute(HttpUriRequest request, HttpContext context) throws IOException {
+            return delegate.execute(request, context);
+        }
+
+        @Override
+        public HttpResponse execute(HttpHost target, HttpRequest request) throws IOException {
+            return delegate.execute(target, request);
+        }
+
+        @Override
+        public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context) throws IOException {
+            return delegate.execute(target, request, context);
+        }
+
+        @Override
+        public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler) throws IOException {
+            return delegate.execute(request, handler);
+        }
+
+        @Override
+        public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> handler, HttpContext context)
+                throws IOException {
+            return delegate.execute(request, handler, context);
+        }
+
+        @Override
+        public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> handler)
+                throws IOException {
+            return delegate.execute(target, request, handler);
+        }
+
+        @Override
+        public <T> T execute(HttpHost target, HttpRequest request, ResponseHandler<? extends T> handler,
+                HttpContext context) throws IOException {
+            return delegate.execute(target, request, handler, context);
+        }
+    }
+}
@@ -1,28 +1,149 @@
 package com.testdroid.appium;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
+ * Shows the latest screenshot in one window shared by all clients
+ * <p>
+ * Screenshots are decoded and scaled in a background thread. When screenshots arrive faster than they can be
+ * shown, only the latest one is shown. Without a display, thumbnails of the latest screenshots are written to a
+ * strip image in the current directory instead.
+ *
  * @author Jarno Tuovinen <jarno.tuovinen@bitbar.com>
  */
-class ScreenshotDisplay extends JFrame {
+class ScreenshotDisplay {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScreenshotDisplay.class);
+
+    private static final String THUMBNAIL_STRIP = "screenshot-strip.png";
+    private static final int THUMBNAIL_HEIGHT = 240;
+    private static final int THUMBNAIL_COUNT = 10;
+
+    private static ScreenshotDisplay instance;
+
+    private final ExecutorService decoder =
+            Executors.newSingleThreadExecutor(ExecutionThreads.factory("ScreenshotDisplay"));
+
+    private final AtomicReference<File> latest = new AtomicReference<>();
+
+    private final boolean headless = GraphicsEnvironment.isHeadless();
+
+    // Accessed only from the decoder thread
+    private final Deque<BufferedImage> thumbnails = new ArrayDeque<>();
+
+    // Accessed only from the event dispatch thread
+    private JFrame frame;
+    private ImagePanel panel;
+
+    private ScreenshotDisplay() {
+    }
+
+    static synchronized ScreenshotDisplay getInstance() {
+        if (instance == null) {
+            instance = new ScreenshotDisplay();
+        }
+        return instance;
+    }
+
+    /**
+     * Show screenshot, returns immediately
+     */
     public void show(File screenshotFile) {
-        ImagePanel panel;
-        Image image;
-        try {
-            image = ImageIO.read(screenshotFile);
-            panel = new ImagePanel(image);
-        } catch (IOException e) {
-            e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
+        // Only schedule decoding if there was nothing pending, a pending decode will pick up the latest file
+        if (latest.getAndSet(screenshotFile) == null) {
+            decoder.execute(this::showLatest);
+        }
+    }
+
+    private void showLatest() {
+        File screenshotFile = latest.getAndSet(null);
+        if (screenshotFile == null) {
             return;
         }
-        add(panel);
-        setVisible(true);
-        setSize(image.getWidth(null), image.getHeight(null));
-        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        try {
+            BufferedImage image = ImageIO.read(screenshotFile);
+            if (image == null) {
+                LOGGER.warn("Unsupported image format in {}", screenshotFile);
+            } else if (headless) {
+                writeThumbnail(image);
+            } else {
+                Image scaled = scale(image, maxWindowSize());
+                SwingUtilities.invokeLater(() -> display(scaled, screenshotFile.getName()));
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed displaying screenshot {}", screenshotFile, e);
+        }
+    }
+
+    private void display(Image image, String title) {
+        if (frame == null) {
+            frame = new JFrame();
+            panel = new ImagePanel();
+            frame.add(panel);
+            frame.setDefaultCloseOperation(WindowConstants.HIDE_ON_CLOSE);
+        }
+        frame.setTitle(title);
+        panel.setImage(image);
+        if (!frame.isVisible()) {
+            frame.pack();
+            frame.setVisible(true);
+        }
+    }
+
+    private void writeThumbnail(BufferedImage image) throws IOException {
+        thumbnails.addLast(scale(image, new Dimension(Integer.MAX_VALUE, THUMBNAIL_HEIGHT)));
+        if (thumbnails.size() > THUMBNAIL_COUNT) {
+            thumbnails.removeFirst();
+        }
+        int width = 0;
+        for (BufferedImage thumbnail : thumbnails) {
+            width += thumbnail.getWidth();
+        }
+        BufferedImage strip = new BufferedImage(width, THUMBNAIL_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = strip.createGraphics();
+        int x = 0;
+        for (BufferedImage thumbnail : thumbnails) {
+            g.drawImage(thumbnail, x, 0, null);
+            x += thumbnail.getWidth();
+        }
+        g.dispose();
+        ImageIO.write(strip, "png", new File(THUMBNAIL_STRIP));
+    }
+
+    private static Dimension maxWindowSize() {
+        Rectangle bounds = GraphicsEnvironment.getLocalGraphicsEnvironment().getMaximumWindowBounds();
+        return new Dimension(bounds.width, bounds.height);
+    }
+
+    /**
+     * Scale image down to fit the given size, keeping its aspect ratio
+     */
+    private static BufferedImage scale(BufferedImage image, Dimension max) {
+        double scale = Math.min(1.0,
+                Math.min((double) max.width / image.getWidth(), (double) max.height / image.getHeight()));
+        if (scale == 1.0) {
+            return image;
+        }
+        int width = Math.max(1, (int) (image.getWidth() * scale));
+        int height = Math.max(1, (int) (image.getHeight() * scale));
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return scaled;
     }
 }
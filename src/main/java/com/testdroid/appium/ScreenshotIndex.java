@@ -0,0 +1,275 @@
+package com.testdroid.appium;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Index of the screenshots taken by a client
+ * <p>
+ * Every screenshot is indexed by SHA-256 of its content and by a 64 bit difference hash of the image, which stays
+ * the same or nearly the same for visually identical screens. Byte-identical screenshots are stored only once:
+ * later copies are hard links to the first file where the file system allows it. Perceptual hashes need the
+ * image decoded, so they are computed in background and waited for only when screenshots are compared.
+ */
+public class ScreenshotIndex {
+
+    /**
+     * Maximum number of differing perceptual hash bits for screenshots considered to show the same screen
+     */
+    public static final int SIMILAR_DISTANCE = 5;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScreenshotIndex.class);
+
+    // Difference hash compares horizontally adjacent pixels of the image scaled to 9x8
+    private static final int HASH_WIDTH = 9;
+    private static final int HASH_HEIGHT = 8;
+    private static final int SAMPLES = 32;
+
+    private static final ExecutorService HASHER =
+            Executors.newSingleThreadExecutor(ExecutionThreads.factory("ScreenshotHash"));
+
+    /**
+     * Indexed screenshot
+     */
+    public static class Entry {
+
+        private final File file;
+
+        private final String contentHash;
+
+        // Completed with null if the screenshot could not be decoded
+        private final CompletableFuture<Long> perceptualHash;
+
+        private final File duplicateOf;
+
+        Entry(File file, String contentHash, CompletableFuture<Long> perceptualHash, File duplicateOf) {
+            this.file = file;
+            this.contentHash = contentHash;
+            this.perceptualHash = perceptualHash;
+            this.duplicateOf = duplicateOf;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return SHA-256 of the screenshot file as hex
+         */
+        public String getContentHash() {
+            return contentHash;
+        }
+
+        /**
+         * @return Perceptual hash, waiting for it to be computed, 0 if the screenshot could not be decoded
+         */
+        public long getPerceptualHash() {
+            Long hash = perceptualHash();
+            return hash != null ? hash : 0;
+        }
+
+        /**
+         * @return Perceptual hash, or null if the screenshot could not be decoded
+         */
+        private Long perceptualHash() {
+            try {
+                return perceptualHash.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException ex) {
+                return null;
+            }
+        }
+
+        /**
+         * @return Earlier screenshot with identical content, or null if this is the first one
+         */
+        public File getDuplicateOf() {
+            return duplicateOf;
+        }
+    }
+
+    private final Map<File, Entry> entries = new LinkedHashMap<>();
+
+    private final Map<String, Entry> byContent = new HashMap<>();
+
+    private long duplicateBytes;
+
+    /**
+     * Store screenshot to file and index it
+     */
+    Entry store(File file, byte[] screenshot) throws IOException {
+        File key = file.getAbsoluteFile();
+        String contentHash = DigestUtils.sha256Hex(screenshot);
+        Entry original;
+        synchronized (this) {
+            original = byContent.get(contentHash);
+        }
+        Path path = key.toPath();
+        // Whether the bytes were not written again, as the file already has them or links to an identical one
+        boolean deduplicated = original != null && original.file.equals(key);
+        if (!deduplicated) {
+            // Never write through an existing file, it may be a hard link shared with an earlier screenshot
+            Files.deleteIfExists(path);
+            deduplicated = original != null && link(path, original.file.toPath());
+            if (!deduplicated) {
+                Files.write(path, screenshot);
+            }
+        }
+        CompletableFuture<Long> perceptualHash = original != null ? original.perceptualHash
+                : CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return perceptualHash(screenshot);
+                    } catch (IOException ex) {
+                        LOGGER.warn("Unable to decode screenshot {}, it is not similar to any other", file, ex);
+                        return null;
+                    }
+                }, HASHER);
+        Entry entry = new Entry(key, contentHash, perceptualHash, original != null ? original.file : null);
+        synchronized (this) {
+            Entry replaced = entries.remove(key);
+            if (replaced != null && byContent.get(replaced.contentHash) == replaced) {
+                byContent.remove(replaced.contentHash);
+            }
+            entries.put(key, entry);
+            byContent.putIfAbsent(contentHash, entry);
+            if (deduplicated) {
+                duplicateBytes += screenshot.length;
+            }
+        }
+        return entry;
+    }
+
+    private static boolean link(Path link, Path existing) {
+        try {
+            Files.createLink(link, existing);
+            LOGGER.info("Screenshot {} is identical to {}", link, existing);
+            return true;
+        } catch (IOException | UnsupportedOperationException ex) {
+            LOGGER.debug("Unable to link {} to {}, writing a copy", link, existing, ex);
+            return false;
+        }
+    }
+
+    public synchronized Entry getEntry(File screenshot) {
+        return entries.get(screenshot.getAbsoluteFile());
+    }
+
+    /**
+     * @return Whether a screenshot indexed before the given one shows the same screen
+     */
+    public boolean hasSeen(File screenshot) {
+        return !findSimilar(screenshot, SIMILAR_DISTANCE, true).isEmpty();
+    }
+
+    /**
+     * Find other screenshots whose perceptual hash differs from the given one by at most maxDistance bits
+     */
+    public List<Entry> findSimilar(File screenshot, int maxDistance) {
+        return findSimilar(screenshot, maxDistance, false);
+    }
+
+    /**
+     * @param earlierOnly Whether to compare only to screenshots indexed before the given one
+     */
+    private List<Entry> findSimilar(File screenshot, int maxDistance, boolean earlierOnly) {
+        Entry entry;
+        List<Entry> others = new ArrayList<>();
+        synchronized (this) {
+            entry = getEntry(screenshot);
+            // Entries are in the order they were indexed in
+            for (Entry other : entries.values()) {
+                if (earlierOnly && other == entry) {
+                    break;
+                }
+                others.add(other);
+            }
+        }
+        // Hashes are waited for without holding the index, so that screenshots can be stored meanwhile
+        Long hash = entry != null ? entry.perceptualHash() : null;
+        if (hash == null) {
+            return Collections.emptyList();
+        }
+        List<Entry> similar = new ArrayList<>();
+        for (Entry other : others) {
+            Long otherHash = other != entry ? other.perceptualHash() : null;
+            if (otherHash != null && distance(hash, otherHash) <= maxDistance) {
+                similar.add(other);
+            }
+        }
+        return similar;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Number of bytes not written because they were identical to an earlier screenshot
+     */
+    public synchronized long getDuplicateBytes() {
+        return duplicateBytes;
+    }
+
+    /**
+     * @return Number of differing bits in two perceptual hashes
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+
+    static long perceptualHash(byte[] screenshot) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(screenshot));
+        if (image == null) {
+            throw new IOException("Unsupported screenshot image format");
+        }
+        // Average brightness of each cell, sampling at most SAMPLES x SAMPLES pixels of it
+        double[][] cells = new double[HASH_HEIGHT][HASH_WIDTH];
+        for (int cy = 0; cy < HASH_HEIGHT; cy++) {
+            int y0 = cy * image.getHeight() / HASH_HEIGHT;
+            int y1 = Math.max(y0 + 1, (cy + 1) * image.getHeight() / HASH_HEIGHT);
+            for (int cx = 0; cx < HASH_WIDTH; cx++) {
+                int x0 = cx * image.getWidth() / HASH_WIDTH;
+                int x1 = Math.max(x0 + 1, (cx + 1) * image.getWidth() / HASH_WIDTH);
+                cells[cy][cx] = brightness(image, x0, y0, x1, y1);
+            }
+        }
+        long hash = 0;
+        for (int y = 0; y < HASH_HEIGHT; y++) {
+            for (int x = 0; x < HASH_WIDTH - 1; x++) {
+                hash = (hash << 1) | (cells[y][x] < cells[y][x + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    private static double brightness(BufferedImage image, int x0, int y0, int x1, int y1) {
+        int xStep = Math.max(1, (x1 - x0) / SAMPLES);
+        int yStep = Math.max(1, (y1 - y0) / SAMPLES);
+        long sum = 0;
+        int count = 0;
+        for (int y = y0; y < y1 && y < image.getHeight(); y += yStep) {
+            for (int x = x0; x < x1 && x < image.getWidth(); x += xStep) {
+                int rgb = image.getRGB(x, y);
+                sum += 299 * ((rgb >> 16) & 0xff) + 587 * ((rgb >> 8) & 0xff) + 114 * (rgb & 0xff);
+                count++;
+            }
+        }
+        return count > 0 ? (double) sum / count : 0;
+    }
+}
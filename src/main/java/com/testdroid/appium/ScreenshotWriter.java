@@ -0,0 +1,71 @@
+package com.testdroid.appium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Writes screenshots to disk in background threads
+ * <p>
+ * The number of screenshots waiting to be written is bounded. When the limit is reached, the thread taking the
+ * next screenshot blocks until a write has finished, so a slow disk cannot fill the heap with screenshot data.
+ */
+class ScreenshotWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScreenshotWriter.class);
+
+    private static final int THREADS = 2;
+
+    private static final int MAX_PENDING = 16;
+
+    private static final ScreenshotWriter INSTANCE = new ScreenshotWriter();
+
+    private final Semaphore pending = new Semaphore(MAX_PENDING);
+
+    private final ExecutorService executor;
+
+    private ScreenshotWriter() {
+        executor = Executors.newFixedThreadPool(THREADS, ExecutionThreads.factory("ScreenshotWriter"));
+    }
+
+    static ScreenshotWriter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queue screenshot to be written, blocking while too many screenshots are waiting
+     *
+     * @param index     Optional index to store the screenshot with, deduplicating identical screenshots
+     * @param onWritten Optional callback run in the writer thread after the file has been written
+     * @return Future completed with the file once written
+     */
+    Future<File> write(byte[] screenshot, File file, ScreenshotIndex index, Consumer<File> onWritten)
+            throws InterruptedException {
+        pending.acquire();
+        try {
+            return executor.submit(() -> {
+                try {
+                    if (index != null) {
+                        index.store(file, screenshot);
+                    } else {
+                        Files.write(file.toPath(), screenshot);
+                    }
+                    LOGGER.info("Screenshot stored to {}", file.getAbsolutePath());
+                    if (onWritten != null) {
+                        onWritten.accept(file);
+                    }
+                    return file;
+                } finally {
+                    pending.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.release();
+            throw ex;
+        }
+    }
+}
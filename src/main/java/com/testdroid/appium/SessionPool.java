@@ -0,0 +1,297 @@
+package com.testdroid.appium;
+
+import io.appium.java_client.AppiumDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Pool of ready Appium sessions started in background, created with
+ * {@link TestdroidAppiumClient#getAndroidSessionPool(int)} or {@link TestdroidAppiumClient#getIOSSessionPool(int)}
+ * <p>
+ * The pool starts acquiring devices and creating sessions as soon as it is created and keeps the given number of
+ * sessions open. A test borrows a ready session, and releases it when done instead of quitting it. Released
+ * sessions have their application state reset in background before they are handed out again. Sessions idle for
+ * longer than the maximum idle time, or open for longer than the maximum age, are quit and replaced.
+ */
+public class SessionPool<T extends AppiumDriver> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionPool.class);
+
+    private static final long EVICTION_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    // Back off from failing session starts, for example when the cloud is unreachable or no device is free
+    private static final long MIN_RETRY_DELAY = TimeUnit.SECONDS.toMillis(10);
+    private static final long MAX_RETRY_DELAY = TimeUnit.MINUTES.toMillis(5);
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+    private final TestdroidAppiumClient template;
+
+    private final TestdroidAppiumClient.DriverFactory<T> driverFactory;
+
+    private final int size;
+
+    private volatile long maxIdle = TimeUnit.MINUTES.toMillis(10);
+
+    private volatile long maxAge = TimeUnit.HOURS.toMillis(1);
+
+    private volatile Consumer<T> resetAction = AppiumDriver::resetApp;
+
+    // Most recently released first, so that rarely needed sessions stay idle and get evicted
+    private final BlockingDeque<Entry<T>> idle = new LinkedBlockingDeque<>();
+
+    private final Map<DeviceSession<T>, Entry<T>> borrowed = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    // Guarded by this
+    private int starting;
+    private int resetting;
+    private int failures;
+    private boolean retryScheduled;
+    private boolean closed;
+
+    private static final class Entry<T extends AppiumDriver> {
+
+        private final DeviceSession<T> session;
+
+        private final long created = System.currentTimeMillis();
+
+        private long idleSince = created;
+
+        Entry(DeviceSession<T> session) {
+            this.session = session;
+        }
+    }
+
+    SessionPool(TestdroidAppiumClient template, int size, TestdroidAppiumClient.DriverFactory<T> driverFactory) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.template = template;
+        this.size = size;
+        this.driverFactory = driverFactory;
+        String name = "SessionPool-" + POOL_COUNT.incrementAndGet();
+        executor = Executors.newFixedThreadPool(size, ExecutionThreads.factory(name, template.isVirtualThreads()));
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                ExecutionThreads.factory(name + "-evictor", template.isVirtualThreads()));
+        scheduler.scheduleWithFixedDelay(this::evict, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+        LOGGER.info("Starting {} pooled sessions", size);
+        fill();
+    }
+
+    /**
+     * Set time after which an unused session is quit and replaced
+     */
+    public void setMaxIdle(long time, TimeUnit unit) {
+        this.maxIdle = unit.toMillis(time);
+    }
+
+    /**
+     * Set time after which a session is quit and replaced once it is not borrowed
+     */
+    public void setMaxAge(long time, TimeUnit unit) {
+        this.maxAge = unit.toMillis(time);
+    }
+
+    /**
+     * Set action returning a released session to a clean state, by default {@link AppiumDriver#resetApp()}
+     */
+    public void setResetAction(Consumer<T> resetAction) {
+        this.resetAction = resetAction;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    public int getBorrowedCount() {
+        return borrowed.size();
+    }
+
+    /**
+     * Borrow a ready session, waiting for one to start or to be released
+     *
+     * @throws TimeoutException if no session is ready within the timeout
+     */
+    public DeviceSession<T> borrow(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            if (isClosed()) {
+                throw new IllegalStateException("Session pool is closed");
+            }
+            Entry<T> entry = idle.pollFirst(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (entry == null) {
+                throw new TimeoutException(String.format("No pooled session ready within %d %s", timeout, unit));
+            }
+            if (isExpired(entry, System.currentTimeMillis())) {
+                discard(entry);
+                continue;
+            }
+            borrowed.put(entry.session, entry);
+            LOGGER.info("Borrowed session on device '{}'", entry.session.getDeviceName());
+            return entry.session;
+        }
+    }
+
+    /**
+     * Return a borrowed session to the pool. Do not quit pooled sessions, release them instead.
+     */
+    public void release(DeviceSession<T> session) {
+        Entry<T> entry = removeBorrowed(session);
+        if (isClosed() || System.currentTimeMillis() - entry.created > maxAge) {
+            discard(entry);
+            return;
+        }
+        synchronized (this) {
+            resetting++;
+        }
+        executor.execute(() -> {
+            boolean reset = false;
+            try {
+                resetAction.accept(entry.session.getDriver());
+                reset = true;
+            } catch (RuntimeException ex) {
+                LOGGER.warn("Failed to reset session on device '{}', replacing it", entry.session.getDeviceName(),
+                        ex);
+            }
+            synchronized (this) {
+                resetting--;
+                if (reset && !closed) {
+                    entry.idleSince = System.currentTimeMillis();
+                    idle.addFirst(entry);
+                    return;
+                }
+            }
+            discard(entry);
+        });
+    }
+
+    /**
+     * Quit a broken borrowed session and start a new one in its place
+     */
+    public void invalidate(DeviceSession<T> session) {
+        discard(removeBorrowed(session));
+    }
+
+    /**
+     * Quit idle sessions and stop starting new ones. Borrowed sessions are quit when released.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        Entry<T> entry;
+        while ((entry = idle.pollFirst()) != null) {
+            quit(entry);
+        }
+        executor.shutdown();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private Entry<T> removeBorrowed(DeviceSession<T> session) {
+        Entry<T> entry = borrowed.remove(session);
+        if (entry == null) {
+            throw new IllegalArgumentException("Session is not borrowed from this pool");
+        }
+        return entry;
+    }
+
+    private boolean isExpired(Entry<T> entry, long now) {
+        return now - entry.idleSince > maxIdle || now - entry.created > maxAge;
+    }
+
+    private void evict() {
+        long now = System.currentTimeMillis();
+        for (Entry<T> entry : idle) {
+            if (isExpired(entry, now) && idle.remove(entry)) {
+                LOGGER.info("Evicting pooled session on device '{}'", entry.session.getDeviceName());
+                discard(entry);
+            }
+        }
+        fill();
+    }
+
+    private void discard(Entry<T> entry) {
+        quit(entry);
+        fill();
+    }
+
+    private static void quit(Entry<?> entry) {
+        try {
+            entry.session.quit();
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed to quit session on device '{}'", entry.session.getDeviceName(), ex);
+        }
+    }
+
+    /**
+     * Start sessions until the pool is full, unless waiting to retry after a failure
+     */
+    private synchronized void fill() {
+        while (!closed && !retryScheduled && idle.size() + borrowed.size() + resetting + starting < size) {
+            starting++;
+            executor.execute(this::start);
+        }
+    }
+
+    private void start() {
+        Entry<T> entry = null;
+        try {
+            template.uploadForSessions();
+            TestdroidAppiumClient client = template.copyForPool();
+            T driver = driverFactory.create(client);
+            entry = new Entry<>(new DeviceSession<>(client.getSessionDeviceName(), client, driver, null));
+        } catch (Exception ex) {
+            LOGGER.error("Failed to start pooled session", ex);
+        }
+        synchronized (this) {
+            starting--;
+            if (entry == null) {
+                scheduleRetry();
+                return;
+            }
+            failures = 0;
+            if (!closed) {
+                idle.addLast(entry);
+                LOGGER.info("Pooled session ready on device '{}'", entry.session.getDeviceName());
+                return;
+            }
+        }
+        quit(entry);
+    }
+
+    // Guarded by this
+    private void scheduleRetry() {
+        if (closed || retryScheduled) {
+            return;
+        }
+        long delay = Math.min(MAX_RETRY_DELAY, MIN_RETRY_DELAY << Math.min(failures++, 10));
+        retryScheduled = true;
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                retryScheduled = false;
+            }
+            fill();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+}
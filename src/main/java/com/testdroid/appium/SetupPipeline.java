@@ -0,0 +1,69 @@
+package com.testdroid.appium;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Independent steps of session setup run in parallel
+ * <p>
+ * Steps are submitted and then waited for together. When a step fails, or the waiting thread is interrupted, the
+ * other steps are cancelled by interrupting them, so for example an upload is not left running after no device
+ * was found. Closing the pipeline cancels steps that have not finished.
+ */
+final class SetupPipeline implements AutoCloseable {
+
+    private static final ExecutorService PLATFORM_EXECUTOR =
+            Executors.newCachedThreadPool(ExecutionThreads.factory("SessionSetup", false));
+
+    // Created on first use, as it is needed only in virtual thread mode
+    private static final class VirtualExecutor {
+        private static final ExecutorService INSTANCE =
+                Executors.newCachedThreadPool(ExecutionThreads.factory("SessionSetup", true));
+    }
+
+    private final CompletionService<Object> completion;
+
+    private final List<Future<?>> steps = new ArrayList<>();
+
+    SetupPipeline(boolean virtualThreads) {
+        completion = new ExecutorCompletionService<>(virtualThreads ? VirtualExecutor.INSTANCE : PLATFORM_EXECUTOR);
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> Future<T> submit(Callable<T> step) {
+        Future<Object> future = completion.submit(step::call);
+        steps.add(future);
+        return (Future<T>) future;
+    }
+
+    /**
+     * Wait for all steps to complete
+     *
+     * @throws Exception Failure of the first step that failed
+     */
+    void awaitAll() throws Exception {
+        boolean completed = false;
+        try {
+            for (int i = 0; i < steps.size(); i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException ex) {
+                    throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                close();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Future<?> step : steps) {
+            step.cancel(true);
+        }
+    }
+}
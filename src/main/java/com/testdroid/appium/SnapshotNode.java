@@ -0,0 +1,77 @@
+package com.testdroid.appium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Element of a parsed page snapshot
+ * <p>
+ * Holds only what locators need: element name, attributes as one array of interned names and values, children and
+ * direct text. Elements are numbered in document order, and each knows the number of its last descendant, so that
+ * document order and subtree membership are cheap to check.
+ */
+final class SnapshotNode {
+
+    private static final String[] NO_ATTRIBUTES = {};
+
+    final String name; // null for the document node
+
+    // Alternating interned names and values
+    final String[] attributes;
+
+    final SnapshotNode parent;
+
+    final int order;
+
+    int end; // Order of the last descendant, or own order when there are none
+
+    List<SnapshotNode> children = Collections.emptyList();
+
+    String text = "";
+
+    SnapshotNode(String name, String[] attributes, SnapshotNode parent, int order) {
+        this.name = name;
+        this.attributes = attributes != null ? attributes : NO_ATTRIBUTES;
+        this.parent = parent;
+        this.order = order;
+        this.end = order;
+    }
+
+    void addChild(SnapshotNode child) {
+        if (children.isEmpty()) {
+            children = new ArrayList<>(4);
+        }
+        children.add(child);
+    }
+
+    /**
+     * @return Attribute value, or null if the element does not have the attribute
+     */
+    String getAttribute(String attribute) {
+        for (int i = 0; i < attributes.length; i += 2) {
+            if (attributes[i].equals(attribute)) {
+                return attributes[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Text of this element and its descendants
+     */
+    String getTextContent() {
+        if (children.isEmpty()) {
+            return text;
+        }
+        StringBuilder content = new StringBuilder(text);
+        for (SnapshotNode child : children) {
+            content.append(child.getTextContent());
+        }
+        return content.toString();
+    }
+
+    boolean contains(SnapshotNode other) {
+        return other.order >= order && other.order <= end;
+    }
+}
@@ -0,0 +1,463 @@
+package com.testdroid.appium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled XPath for page snapshots, supporting the subset used by Appium locators
+ * <p>
+ * Supported are absolute location paths of child ({@code /}) and descendant ({@code //}) steps with element names
+ * or {@code *}, and predicates with positions, {@code last()}, attribute and {@code text()} comparisons,
+ * {@code contains()}, {@code starts-with()}, {@code not()}, {@code and}, {@code or} and parentheses. Other
+ * expressions are not compiled, and are left to a full XPath implementation.
+ */
+final class SnapshotXPath {
+
+    private static final int MAX_CACHED = 1024;
+
+    private static final SnapshotXPath UNSUPPORTED = new SnapshotXPath(Collections.emptyList());
+
+    private static final ConcurrentMap<String, SnapshotXPath> CACHE = new ConcurrentHashMap<>();
+
+    private final List<Step> steps;
+
+    private SnapshotXPath(List<Step> steps) {
+        this.steps = steps;
+    }
+
+    /**
+     * @return Compiled expression, or null if the expression is not supported
+     */
+    static SnapshotXPath compile(String xpath) {
+        SnapshotXPath compiled = CACHE.get(xpath);
+        if (compiled == null) {
+            try {
+                compiled = new SnapshotXPath(new Parser(xpath).parse());
+            } catch (IllegalArgumentException ex) {
+                compiled = UNSUPPORTED;
+            }
+            if (CACHE.size() >= MAX_CACHED) {
+                CACHE.clear();
+            }
+            CACHE.put(xpath, compiled);
+        }
+        return compiled != UNSUPPORTED ? compiled : null;
+    }
+
+    /**
+     * @return Matching elements in document order
+     */
+    List<SnapshotNode> evaluate(SnapshotNode document) {
+        List<SnapshotNode> context = Collections.singletonList(document);
+        for (Step step : steps) {
+            List<SnapshotNode> next = new ArrayList<>();
+            int traversed = -1;
+            for (SnapshotNode node : context) {
+                if (!step.descendant) {
+                    step.select(node, next);
+                } else if (node.order > traversed) {
+                    // Descendants of nodes inside an already traversed subtree were selected with it
+                    traversed = node.end;
+                    descend(node, step, next);
+                }
+            }
+            if (next.size() > 1) {
+                next.sort((a, b) -> Integer.compare(a.order, b.order));
+            }
+            context = next;
+        }
+        return context;
+    }
+
+    private static void descend(SnapshotNode node, Step step, List<SnapshotNode> out) {
+        step.select(node, out);
+        for (SnapshotNode child : node.children) {
+            descend(child, step, out);
+        }
+    }
+
+    private static final class Step {
+
+        private final boolean descendant;
+
+        private final String name; // null for any element
+
+        private final List<Filter> filters;
+
+        Step(boolean descendant, String name, List<Filter> filters) {
+            this.descendant = descendant;
+            this.name = name;
+            this.filters = filters;
+        }
+
+        /**
+         * Add matching children of the node to the result
+         */
+        void select(SnapshotNode parent, List<SnapshotNode> out) {
+            if (filters.isEmpty()) {
+                for (SnapshotNode child : parent.children) {
+                    if (name == null || name.equals(child.name)) {
+                        out.add(child);
+                    }
+                }
+                return;
+            }
+            List<SnapshotNode> candidates = new ArrayList<>();
+            for (SnapshotNode child : parent.children) {
+                if (name == null || name.equals(child.name)) {
+                    candidates.add(child);
+                }
+            }
+            // Each predicate filters the result of the previous one, positions count within that result
+            for (Filter filter : filters) {
+                if (candidates.isEmpty()) {
+                    return;
+                }
+                candidates = filter.apply(candidates);
+            }
+            out.addAll(candidates);
+        }
+    }
+
+    private interface Filter {
+        List<SnapshotNode> apply(List<SnapshotNode> nodes);
+    }
+
+    private interface Condition {
+        boolean test(SnapshotNode node);
+    }
+
+    private interface Value {
+        /**
+         * @return Value for the node, or null if there is none, like for a missing attribute
+         */
+        String get(SnapshotNode node);
+    }
+
+    private static final class NumberValue implements Value {
+
+        private final String number;
+
+        NumberValue(String number) {
+            this.number = number;
+        }
+
+        @Override
+        public String get(SnapshotNode node) {
+            return number;
+        }
+    }
+
+    private static final class AttributeValue implements Value {
+
+        private final String attribute;
+
+        AttributeValue(String attribute) {
+            this.attribute = attribute;
+        }
+
+        @Override
+        public String get(SnapshotNode node) {
+            return node.getAttribute(attribute);
+        }
+    }
+
+    private static double toNumber(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException ex) {
+            return Double.NaN;
+        }
+    }
+
+    private static Condition compare(Value left, String operator, Value right) {
+        boolean numeric = left instanceof NumberValue || right instanceof NumberValue || operator.matches("[<>]=?");
+        return node -> {
+            String l = left.get(node);
+            String r = right.get(node);
+            if (l == null || r == null) {
+                return false;
+            }
+            if (!numeric) {
+                return operator.equals("=") == l.equals(r);
+            }
+            double ln = toNumber(l);
+            double rn = toNumber(r);
+            if (Double.isNaN(ln) || Double.isNaN(rn)) {
+                return operator.equals("!=");
+            }
+            int result = Double.compare(ln, rn);
+            switch (operator) {
+                case "=":
+                    return result == 0;
+                case "!=":
+                    return result != 0;
+                case "<":
+                    return result < 0;
+                case "<=":
+                    return result <= 0;
+                case ">":
+                    return result > 0;
+                default:
+                    return result >= 0;
+            }
+        };
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    /**
+     * Recursive descent parser throwing {@link IllegalArgumentException} for unsupported expressions
+     */
+    private static final class Parser {
+
+        private final String xpath;
+
+        private int pos;
+
+        Parser(String xpath) {
+            this.xpath = xpath;
+        }
+
+        List<Step> parse() {
+            List<Step> steps = new ArrayList<>();
+            while (true) {
+                skipWhitespace();
+                if (pos == xpath.length()) {
+                    break;
+                }
+                boolean descendant;
+                if (accept("//")) {
+                    descendant = true;
+                } else if (accept("/")) {
+                    descendant = false;
+                } else {
+                    throw unsupported();
+                }
+                String name = accept("*") ? null : name();
+                if (peek("::") || peek("(")) {
+                    throw unsupported(); // Axes and node tests
+                }
+                List<Filter> filters = new ArrayList<>();
+                while (accept("[")) {
+                    filters.add(filter());
+                    expect("]");
+                }
+                steps.add(new Step(descendant, name, filters));
+            }
+            if (steps.isEmpty()) {
+                throw unsupported();
+            }
+            return steps;
+        }
+
+        private Filter filter() {
+            int start = pos;
+            skipWhitespace();
+            if (pos < xpath.length() && Character.isDigit(xpath.charAt(pos))) {
+                int position = Integer.parseInt(digits());
+                if (peek("]")) {
+                    return nodes -> position >= 1 && position <= nodes.size()
+                            ? Collections.singletonList(nodes.get(position - 1)) : Collections.emptyList();
+                }
+                pos = start;
+            }
+            if (accept("last()") && peek("]")) {
+                return nodes -> Collections.singletonList(nodes.get(nodes.size() - 1));
+            }
+            pos = start;
+            Condition condition = or();
+            return nodes -> {
+                List<SnapshotNode> matching = new ArrayList<>();
+                for (SnapshotNode node : nodes) {
+                    if (condition.test(node)) {
+                        matching.add(node);
+                    }
+                }
+                return matching;
+            };
+        }
+
+        private Condition or() {
+            Condition condition = and();
+            while (acceptKeyword("or")) {
+                Condition left = condition;
+                Condition right = and();
+                condition = node -> left.test(node) || right.test(node);
+            }
+            return condition;
+        }
+
+        private Condition and() {
+            Condition condition = unary();
+            while (acceptKeyword("and")) {
+                Condition left = condition;
+                Condition right = unary();
+                condition = node -> left.test(node) && right.test(node);
+            }
+            return condition;
+        }
+
+        private Condition unary() {
+            if (accept("(")) {
+                Condition condition = or();
+                expect(")");
+                return condition;
+            }
+            if (acceptFunction("not")) {
+                Condition condition = or();
+                expect(")");
+                return node -> !condition.test(node);
+            }
+            if (acceptFunction("contains")) {
+                Value[] arguments = arguments();
+                return node -> orEmpty(arguments[0].get(node)).contains(orEmpty(arguments[1].get(node)));
+            }
+            if (acceptFunction("starts-with")) {
+                Value[] arguments = arguments();
+                return node -> orEmpty(arguments[0].get(node)).startsWith(orEmpty(arguments[1].get(node)));
+            }
+            Value left = value();
+            String operator = operator();
+            if (operator == null) {
+                if (left instanceof NumberValue) {
+                    throw unsupported(); // Positions inside expressions
+                }
+                if (left instanceof AttributeValue) {
+                    // Present also when empty, like content-desc=""
+                    return node -> left.get(node) != null;
+                }
+                return node -> !orEmpty(left.get(node)).isEmpty();
+            }
+            return compare(left, operator, value());
+        }
+
+        private Value[] arguments() {
+            Value first = value();
+            expect(",");
+            Value second = value();
+            expect(")");
+            return new Value[]{first, second};
+        }
+
+        private Value value() {
+            skipWhitespace();
+            if (accept("@")) {
+                return new AttributeValue(name());
+            }
+            if (acceptFunction("text")) {
+                expect(")");
+                // No text node when empty, which compares like a missing attribute
+                return node -> !node.text.isEmpty() ? node.text : null;
+            }
+            if (pos < xpath.length() && (xpath.charAt(pos) == '\'' || xpath.charAt(pos) == '"')) {
+                char quote = xpath.charAt(pos);
+                int end = xpath.indexOf(quote, pos + 1);
+                if (end < 0) {
+                    throw unsupported();
+                }
+                String literal = xpath.substring(pos + 1, end);
+                pos = end + 1;
+                return node -> literal;
+            }
+            if (pos < xpath.length() && (Character.isDigit(xpath.charAt(pos)) || xpath.charAt(pos) == '-')) {
+                int start = pos++;
+                while (pos < xpath.length()
+                        && (Character.isDigit(xpath.charAt(pos)) || xpath.charAt(pos) == '.')) {
+                    pos++;
+                }
+                return new NumberValue(xpath.substring(start, pos));
+            }
+            throw unsupported();
+        }
+
+        private String operator() {
+            for (String operator : new String[]{"!=", "<=", ">=", "=", "<", ">"}) {
+                if (accept(operator)) {
+                    return operator;
+                }
+            }
+            return null;
+        }
+
+        private String name() {
+            skipWhitespace();
+            int start = pos;
+            if (pos < xpath.length() && (Character.isLetter(xpath.charAt(pos)) || xpath.charAt(pos) == '_')) {
+                while (pos < xpath.length() && isNameChar(xpath.charAt(pos))) {
+                    pos++;
+                }
+            }
+            if (start == pos) {
+                throw unsupported();
+            }
+            return xpath.substring(start, pos);
+        }
+
+        private String digits() {
+            int start = pos;
+            while (pos < xpath.length() && Character.isDigit(xpath.charAt(pos))) {
+                pos++;
+            }
+            skipWhitespace();
+            return xpath.substring(start, pos).trim();
+        }
+
+        private static boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '.' || c == '-' || c == '_';
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            skipWhitespace();
+            int end = pos + keyword.length();
+            if (xpath.startsWith(keyword, pos) && (end == xpath.length() || !isNameChar(xpath.charAt(end)))) {
+                pos = end;
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptFunction(String function) {
+            int start = pos;
+            if (acceptKeyword(function) && accept("(")) {
+                return true;
+            }
+            pos = start;
+            return false;
+        }
+
+        private boolean peek(String token) {
+            skipWhitespace();
+            return xpath.startsWith(token, pos);
+        }
+
+        private boolean accept(String token) {
+            if (peek(token)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw unsupported();
+            }
+        }
+
+        private void skipWhitespace() {
+            while (pos < xpath.length() && Character.isWhitespace(xpath.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private IllegalArgumentException unsupported() {
+            return new IllegalArgumentException("Unsupported XPath at " + pos + ": " + xpath);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.testdroid.appium;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timed phase of a session, with the phases it consists of as children
+ * <p>
+ * Spans of session setup and quit are recorded by {@link TestdroidAppiumClient}, see
+ * {@link TestdroidAppiumClient#getLastTrace()}. Child spans may be started and ended from several threads, as
+ * setup phases run in parallel.
+ */
+public class Span {
+
+    interface Body<T, E extends Exception> {
+        T run(Span span) throws E;
+    }
+
+    private final String name;
+
+    private final String traceId;
+
+    private final String spanId;
+
+    private final Span parent;
+
+    private final long startTimeNanos; // Since epoch
+    private final long started; // System.nanoTime() at start
+
+    private volatile long durationNanos = -1;
+
+    private volatile String error;
+
+    private final Map<String, Object> attributes = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private final List<Span> children = new CopyOnWriteArrayList<>();
+
+    private Span(String name, String traceId, Span parent) {
+        this.name = name;
+        this.traceId = traceId;
+        this.spanId = randomHex(1);
+        this.parent = parent;
+        this.started = System.nanoTime();
+        // Wall clock has only millisecond precision, so spans of a trace are timed from its root
+        this.startTimeNanos = parent != null ? parent.startTimeNanos + (started - parent.started)
+                : TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /**
+     * Start span of a new trace
+     */
+    static Span root(String name) {
+        return new Span(name, randomHex(2), null);
+    }
+
+    private static String randomHex(int longs) {
+        StringBuilder hex = new StringBuilder();
+        for (int i = 0; i < longs; i++) {
+            hex.append(String.format("%016x", ThreadLocalRandom.current().nextLong()));
+        }
+        return hex.toString();
+    }
+
+    Span child(String name) {
+        Span child = new Span(name, traceId, this);
+        children.add(child);
+        return child;
+    }
+
+    /**
+     * Run the body in a child span, which is ended when the body returns and marked failed if it throws
+     */
+    <T, E extends Exception> T run(String name, Body<T, E> body) throws E {
+        Span child = child(name);
+        try {
+            return body.run(child);
+        } catch (Exception | Error ex) {
+            child.setError(ex);
+            throw ex;
+        } finally {
+            child.end();
+        }
+    }
+
+    Span setAttribute(String key, Object value) {
+        if (value != null) {
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    void setError(Throwable error) {
+        // First line only, as WebDriver exceptions append build and system info to the message
+        this.error = error.getMessage() != null ? error.getMessage().split("\n", 2)[0] : error.getClass().getName();
+    }
+
+    /**
+     * End the span, ending it again keeps the first duration
+     */
+    void end() {
+        if (durationNanos < 0) {
+            durationNanos = System.nanoTime() - started;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 32 hex digits shared by all spans of the trace
+     */
+    public String getTraceId() {
+        return traceId;
+    }
+
+    /**
+     * @return 16 hex digits
+     */
+    public String getSpanId() {
+        return spanId;
+    }
+
+    /**
+     * @return Parent span, null for the root of the trace
+     */
+    public Span getParent() {
+        return parent;
+    }
+
+    public long getStartTimeNanos() {
+        return startTimeNanos;
+    }
+
+    /**
+     * @return Duration in nanoseconds, or time elapsed so far if not ended yet
+     */
+    public long getDurationNanos() {
+        long duration = durationNanos;
+        return duration >= 0 ? duration : System.nanoTime() - started;
+    }
+
+    public boolean isEnded() {
+        return durationNanos >= 0;
+    }
+
+    /**
+     * @return Message of the failure that ended the span, null if it succeeded
+     */
+    public String getError() {
+        return error;
+    }
+
+    public Map<String, Object> getAttributes() {
+        synchronized (attributes) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(attributes));
+        }
+    }
+
+    public List<Span> getChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return First span with the name in this span tree, null if none
+     */
+    public Span find(String name) {
+        if (this.name.equals(name)) {
+            return this;
+        }
+        for (Span child : children) {
+            Span found = child.find(name);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %d ms%s", name, TimeUnit.NANOSECONDS.toMillis(getDurationNanos()),
+                error != null ? " failed: " + error : "");
+    }
+}
@@ -0,0 +1,149 @@
+package com.testdroid.appium;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends traces to a local file, one JSON document per line
+ * <p>
+ * Lines are appended whole, so sessions of several clients can share the file.
+ */
+public final class SpanExporter {
+
+    public enum Format {
+        /**
+         * One line per span, with parent span ids linking the spans of a trace
+         */
+        NDJSON,
+        /**
+         * One line per trace, as OpenTelemetry OTLP/JSON ExportTraceServiceRequest, which collectors can import
+         */
+        OTLP_JSON
+    }
+
+    private static final String SERVICE_NAME = "testdroid-appium-driver";
+
+    // OTLP status codes and span kind
+    private static final int STATUS_OK = 1;
+    private static final int STATUS_ERROR = 2;
+    private static final int KIND_INTERNAL = 1;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final ConcurrentMap<String, Object> FILE_LOCKS = new ConcurrentHashMap<>();
+
+    private SpanExporter() {
+    }
+
+    /**
+     * Append the trace of the root span to the file
+     */
+    public static void write(Span root, File file, Format format) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        if (format == Format.OTLP_JSON) {
+            lines.append(OBJECT_MAPPER.writeValueAsString(toOtlp(root))).append('\n');
+        } else {
+            appendNdjson(root, lines);
+        }
+        byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+        synchronized (FILE_LOCKS.computeIfAbsent(file.getAbsolutePath(), k -> new Object())) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Unable to create directory " + parent);
+            }
+            Files.write(file.toPath(), bytes, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private static void appendNdjson(Span span, StringBuilder lines) throws IOException {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("traceId", span.getTraceId());
+        json.put("spanId", span.getSpanId());
+        if (span.getParent() != null) {
+            json.put("parentSpanId", span.getParent().getSpanId());
+        }
+        json.put("name", span.getName());
+        json.put("start", Instant.ofEpochSecond(0, span.getStartTimeNanos()).toString());
+        json.put("durationMs", span.getDurationNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        json.put("status", span.getError() == null ? "OK" : "ERROR");
+        if (span.getError() != null) {
+            json.put("error", span.getError());
+        }
+        json.put("attributes", span.getAttributes());
+        lines.append(OBJECT_MAPPER.writeValueAsString(json)).append('\n');
+        for (Span child : span.getChildren()) {
+            appendNdjson(child, lines);
+        }
+    }
+
+    private static Map<String, Object> toOtlp(Span root) {
+        List<Map<String, Object>> spans = new ArrayList<>();
+        addOtlpSpans(root, spans);
+
+        Map<String, Object> scope = new LinkedHashMap<>();
+        scope.put("scope", Collections.singletonMap("name", SpanExporter.class.getPackage().getName()));
+        scope.put("spans", spans);
+        Map<String, Object> resource = new LinkedHashMap<>();
+        resource.put("resource", Collections.singletonMap("attributes",
+                toOtlpAttributes(Collections.singletonMap("service.name", SERVICE_NAME))));
+        resource.put("scopeSpans", Collections.singletonList(scope));
+        return Collections.singletonMap("resourceSpans", Collections.singletonList(resource));
+    }
+
+    private static void addOtlpSpans(Span span, List<Map<String, Object>> spans) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("traceId", span.getTraceId());
+        json.put("spanId", span.getSpanId());
+        if (span.getParent() != null) {
+            json.put("parentSpanId", span.getParent().getSpanId());
+        }
+        json.put("name", span.getName());
+        json.put("kind", KIND_INTERNAL);
+        // 64-bit integers are strings in OTLP/JSON
+        json.put("startTimeUnixNano", Long.toString(span.getStartTimeNanos()));
+        json.put("endTimeUnixNano", Long.toString(span.getStartTimeNanos() + span.getDurationNanos()));
+        json.put("attributes", toOtlpAttributes(span.getAttributes()));
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("code", span.getError() == null ? STATUS_OK : STATUS_ERROR);
+        if (span.getError() != null) {
+            status.put("message", span.getError());
+        }
+        json.put("status", status);
+        spans.add(json);
+        for (Span child : span.getChildren()) {
+            addOtlpSpans(child, spans);
+        }
+    }
+
+    private static List<Map<String, Object>> toOtlpAttributes(Map<String, Object> attributes) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            Object value = attribute.getValue();
+            Map<String, Object> typed;
+            if (value instanceof Boolean) {
+                typed = Collections.singletonMap("boolValue", value);
+            } else if (value instanceof Integer || value instanceof Long) {
+                typed = Collections.singletonMap("intValue", value.toString());
+            } else if (value instanceof Number) {
+                typed = Collections.singletonMap("doubleValue", ((Number) value).doubleValue());
+            } else {
+                typed = Collections.singletonMap("stringValue", String.valueOf(value));
+            }
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("key", attribute.getKey());
+            json.put("value", typed);
+            list.add(json);
+        }
+        return list;
+    }
+}
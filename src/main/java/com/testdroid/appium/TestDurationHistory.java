@@ -0,0 +1,114 @@
+package com.testdroid.appium;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Persistent history of test durations, used for running the longest tests first
+ * <p>
+ * Durations are kept in a properties file as milliseconds per test name, averaged with the previous runs so that a
+ * single slow run does not reorder the suite. Saving merges with the file under a file lock, so suites of several
+ * processes can share the history.
+ */
+class TestDurationHistory {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TestDurationHistory.class);
+
+    // Weight of the latest run in the stored duration
+    private static final double LATEST_WEIGHT = 0.5;
+
+    private final File file;
+
+    private final Map<String, Long> durations = new HashMap<>();
+
+    // Guarded by this
+    private final Map<String, Long> recorded = new HashMap<>();
+
+    TestDurationHistory(File file) {
+        this.file = file;
+        Properties properties = read();
+        for (String name : properties.stringPropertyNames()) {
+            try {
+                durations.put(name, Long.parseLong(properties.getProperty(name)));
+            } catch (NumberFormatException ex) {
+                LOGGER.debug("Ignoring invalid duration of {}", name);
+            }
+        }
+    }
+
+    /**
+     * @return Duration of the test in milliseconds in previous runs, null if not known
+     */
+    Long get(String name) {
+        return durations.get(name);
+    }
+
+    synchronized void record(String name, long millis) {
+        recorded.put(name, millis);
+    }
+
+    /**
+     * Write the recorded durations, merged with the durations saved meanwhile by others
+     */
+    synchronized void save() {
+        if (recorded.isEmpty()) {
+            return;
+        }
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.warn("Unable to create directory {} for test durations", directory);
+            return;
+        }
+        File lockFile = new File(directory, file.getName() + ".lock");
+        try (FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+             FileLock ignored = channel.lock()) {
+            Properties properties = read();
+            for (Map.Entry<String, Long> entry : recorded.entrySet()) {
+                String previous = properties.getProperty(entry.getKey());
+                long duration = entry.getValue();
+                if (previous != null) {
+                    try {
+                        duration = Math.round(LATEST_WEIGHT * duration
+                                + (1 - LATEST_WEIGHT) * Long.parseLong(previous));
+                    } catch (NumberFormatException ex) {
+                        LOGGER.debug("Replacing invalid duration of {}", entry.getKey());
+                    }
+                }
+                properties.setProperty(entry.getKey(), Long.toString(duration));
+            }
+            // Write to a temporary file first so that a crash never leaves a partial history behind
+            File tmpFile = new File(directory, file.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(tmpFile)) {
+                properties.store(out, "Test durations in milliseconds");
+            }
+            if (!tmpFile.renameTo(file)) {
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("Unable to rename " + tmpFile + " to " + file);
+                }
+            }
+            recorded.clear();
+        } catch (IOException e) {
+            LOGGER.warn("Failed writing test durations to {}", file, e);
+        }
+    }
+
+    private Properties read() {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                LOGGER.warn("Failed reading test durations from {}", file, e);
+            }
+        }
+        return properties;
+    }
+}
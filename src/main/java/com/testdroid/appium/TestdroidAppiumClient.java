@@ -3,21 +3,17 @@ package com.testdroid.appium;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.http.*;
-import com.google.api.client.http.javanet.NetHttpTransport;
-import com.testdroid.api.APIException;
-import com.testdroid.api.APIListResource;
 import com.testdroid.api.DefaultAPIClient;
-import com.testdroid.api.dto.Context;
-import com.testdroid.api.filter.StringFilterEntry;
 import com.testdroid.api.http.MultipartFormDataContent;
 import com.testdroid.api.model.*;
 import com.testdroid.appium.model.AppiumResponse;
+import com.testdroid.appium.model.UploadStatus;
 import io.appium.java_client.AppiumDriver;
 import io.appium.java_client.MobileElement;
-import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.SessionId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -26,13 +22,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.List;
-import java.util.Properties;
-
-import static com.testdroid.api.dto.Operand.EQ;
-import static com.testdroid.dao.repository.dto.MappingKey.NAME;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Client for running Appium tests against Testdroid Cloud
@@ -42,12 +38,10 @@ import static com.testdroid.dao.repository.dto.MappingKey.NAME;
  */
 public class TestdroidAppiumClient {
 
-    private static final String RESULTS_INFO =
-            "{} #{} {}/api/v2/users/{}/projects/{}/runs/{}/device-sessions/{}/output-file-set/files";
-
     private static final String CLOUD_URL = "https://cloud.testdroid.com";
     private static final String CLOUD_APPIUM_URL = "http://appium.testdroid.com/wd/hub";
     private static final String APPIUM_UPLOAD_URL = "http://appium.testdroid.com/upload";
+    private static final String UPLOAD_CACHE_DIR = ".testdroid/upload-cache";
 
     // File for testdroid properties that will be used if no environment variables found
     private static final String TESTDROID_PROPERTIES = "testdroid.properties";
@@ -61,6 +55,17 @@ public class TestdroidAppiumClient {
     private static final String TESTDROID_GUI = "testdroid.gui";
     private static final String TESTDROID_APPIUM_URL = "testdroid.appiumUrl";
     private static final String TESTDROID_APPIUM_UPLOAD_URL = "testdroid.appiumUploadUrl";
+    private static final String TESTDROID_UPLOAD_CACHE = "testdroid.uploadCache";
+    private static final String TESTDROID_UPLOAD_CHUNK_SIZE = "testdroid.uploadChunkSize";
+    private static final String TESTDROID_UPLOAD_RETRIES = "testdroid.uploadRetries";
+    private static final String TESTDROID_COMMAND_METRICS = "testdroid.commandMetrics";
+    private static final String TESTDROID_TRACE_FILE = "testdroid.traceFile";
+    private static final String TESTDROID_TRACE_FORMAT = "testdroid.traceFormat";
+    private static final String TESTDROID_OUTPUT_DIR = "testdroid.outputDir";
+    private static final String TESTDROID_HTTP_MAX_CONNECTIONS = "testdroid.http.maxConnectionsPerHost";
+    private static final String TESTDROID_HTTP_CONNECT_TIMEOUT = "testdroid.http.connectTimeout";
+    private static final String TESTDROID_HTTP_READ_TIMEOUT = "testdroid.http.readTimeout";
+    private static final String TESTDROID_VIRTUAL_THREADS = ExecutionThreads.VIRTUAL_THREADS_PROPERTY;
     // Appium constants
     public static final String APPIUM_PLATFORM_IOS = "iOS";
     public static final String APPIUM_PLATFORM_ANDROID = "Android";
@@ -78,26 +83,50 @@ public class TestdroidAppiumClient {
 
     // @TODO add rest of platforms
 
-    private static final HttpTransport HTTP_TRANSPORT = new NetHttpTransport();
-
-    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+    static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
             .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
 
     private static final Logger LOGGER = LoggerFactory.getLogger(TestdroidAppiumClient.class);
 
-    private static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     private TestdroidAppiumDriverAndroid androidDriver;
 
     private TestdroidAppiumDriverIos iOSdriver;
 
-    private static DefaultAPIClient api;
+    private DefaultAPIClient api;
+
+    private boolean guiEnabled = false;
+
+    private DeviceRunMonitor.Run deviceRun;
+
+    private CompletableFuture<List<File>> outputFiles; // Of the latest session, null if not downloaded
+
+    private final Queue<Future<File>> pendingScreenshots = new ConcurrentLinkedQueue<>();
+
+    private final ScreenshotIndex screenshotIndex = new ScreenshotIndex();
+
+    private UploadCache uploadCache; // Optional, null when uploaded files are not cached
+    private int uploadChunkSize = 1024 * 1024; // Optional, bytes read from app file at a time when uploading
+    private int uploadRetries = 3; // Optional, number of times failed upload is retried
+    private UploadProgressListener uploadProgressListener; // Optional
+    private File commandMetricsFile; // Optional, command latencies are written here as JSON when quitting
+    private boolean commandMetricsPerSession; // Copies of a client write to a file of their own per session
+    private File traceFile; // Optional, spans of session setup and quit are appended here
+    private SpanExporter.Format traceFormat = SpanExporter.Format.NDJSON;
 
-    private static boolean guiEnabled = false;
+    // Optional, output files of finished device sessions are downloaded here, in a directory per test run
+    private File outputDirectory;
 
-    private static Thread deviceRunMonitorThread;
+    // Trace of the latest session setup or quit
+    private volatile Span lastTrace;
 
-    private ScreenshotDisplay screenshotDisplay = null;
+    private int httpMaxConnectionsPerHost = 200; // Optional, open connections kept to Appium and upload hosts
+    private int httpConnectTimeout = 60; // Optional, seconds
+    private int httpReadTimeout = 3 * 60 * 60; // Optional, seconds, long enough for slow Appium session creation
+
+    // Optional, start sessions on virtual threads where supported
+    private boolean virtualThreads = ExecutionThreads.isVirtualThreadsDefault();
 
     private int deviceWaitTime = 120; // Optional, sets time to wait when device is in use, use 0 for no wait time
     private boolean signAppFile = true; // Optional, if set to false app file will not be resigned
@@ -129,7 +158,13 @@ public class TestdroidAppiumClient {
     private String androidPackage;
     private String androidActivity;
 
-    private String deviceName; // Mandatory
+    private String deviceName; // Mandatory, unless deviceNames or deviceFilter given
+    private List<String> deviceNames; // Optional, first free one of these is used instead of deviceName
+    private Predicate<APIDevice> deviceFilter; // Optional, only devices accepted by the filter are used
+
+    // Device and test run of the latest session
+    private String sessionDeviceName;
+    private String sessionTestRunName;
 
     // Provide either one of these
     private File appFile; // Path to local application file
@@ -173,6 +208,57 @@ public class TestdroidAppiumClient {
             appiumUploadUrl = new URL(APPIUM_UPLOAD_URL);
         }
 
+        String sUploadCache = getProperty(TESTDROID_UPLOAD_CACHE);
+        if (sUploadCache == null) {
+            uploadCache = new UploadCache(new File(System.getProperty("user.home"), UPLOAD_CACHE_DIR));
+        } else if (!"false".equals(sUploadCache.toLowerCase()) && !"0".equals(sUploadCache)) {
+            uploadCache = new UploadCache(new File(sUploadCache));
+        }
+
+        String sUploadChunkSize = getProperty(TESTDROID_UPLOAD_CHUNK_SIZE);
+        if (sUploadChunkSize != null) {
+            setUploadChunkSize(Integer.parseInt(sUploadChunkSize));
+        }
+        String sUploadRetries = getProperty(TESTDROID_UPLOAD_RETRIES);
+        if (sUploadRetries != null) {
+            uploadRetries = Integer.parseInt(sUploadRetries);
+        }
+
+        String sCommandMetrics = getProperty(TESTDROID_COMMAND_METRICS);
+        if (sCommandMetrics != null) {
+            commandMetricsFile = new File(sCommandMetrics);
+        }
+        String sTraceFile = getProperty(TESTDROID_TRACE_FILE);
+        if (sTraceFile != null) {
+            traceFile = new File(sTraceFile);
+        }
+        String sTraceFormat = getProperty(TESTDROID_TRACE_FORMAT);
+        if (sTraceFormat != null) {
+            traceFormat = SpanExporter.Format.valueOf(sTraceFormat.toUpperCase(Locale.ENGLISH));
+        }
+        String sOutputDir = getProperty(TESTDROID_OUTPUT_DIR);
+        if (sOutputDir != null) {
+            outputDirectory = new File(sOutputDir);
+        }
+
+        String sHttpMaxConnections = getProperty(TESTDROID_HTTP_MAX_CONNECTIONS);
+        if (sHttpMaxConnections != null) {
+            setHttpMaxConnectionsPerHost(Integer.parseInt(sHttpMaxConnections));
+        }
+        String sHttpConnectTimeout = getProperty(TESTDROID_HTTP_CONNECT_TIMEOUT);
+        if (sHttpConnectTimeout != null) {
+            setHttpConnectTimeout(Integer.parseInt(sHttpConnectTimeout));
+        }
+        String sHttpReadTimeout = getProperty(TESTDROID_HTTP_READ_TIMEOUT);
+        if (sHttpReadTimeout != null) {
+            setHttpReadTimeout(Integer.parseInt(sHttpReadTimeout));
+        }
+
+        String sVirtualThreads = getProperty(TESTDROID_VIRTUAL_THREADS);
+        if (sVirtualThreads != null) {
+            virtualThreads = Boolean.parseBoolean(sVirtualThreads);
+        }
+
         String appFilePath = getProperty(APPIUM_APPFILE);
         if (appFilePath != null) {
             appFile = new File(getProperty(APPIUM_APPFILE));
@@ -200,12 +286,57 @@ public class TestdroidAppiumClient {
         LOGGER.info("Automation name: {}", automationName);
         LOGGER.info("App file: {}", appFile);
         LOGGER.info("File UUID: {}", fileUUID);
+        LOGGER.info("Upload cache: {}", uploadCache != null ? uploadCache.getDirectory() : "disabled");
+    }
+
+    /**
+     * Copy configuration of another client for running on the given device
+     */
+    private TestdroidAppiumClient(TestdroidAppiumClient other, String deviceName) {
+        this.deviceName = deviceName;
+        testdroidProperties = other.testdroidProperties;
+        uploadCache = other.uploadCache;
+        uploadChunkSize = other.uploadChunkSize;
+        uploadRetries = other.uploadRetries;
+        uploadProgressListener = other.uploadProgressListener;
+        commandMetricsFile = other.commandMetricsFile;
+        commandMetricsPerSession = other.commandMetricsFile != null;
+        traceFile = other.traceFile;
+        traceFormat = other.traceFormat;
+        outputDirectory = other.outputDirectory;
+        httpMaxConnectionsPerHost = other.httpMaxConnectionsPerHost;
+        httpConnectTimeout = other.httpConnectTimeout;
+        httpReadTimeout = other.httpReadTimeout;
+        virtualThreads = other.virtualThreads;
+        deviceFilter = other.deviceFilter;
+        deviceWaitTime = other.deviceWaitTime;
+        signAppFile = other.signAppFile;
+        guiEnabled = other.guiEnabled;
+        cloudUrl = other.cloudUrl;
+        appiumUploadUrl = other.appiumUploadUrl;
+        username = other.username;
+        password = other.password;
+        projectName = other.projectName;
+        testRunName = other.testRunName;
+        testdroidDescription = other.testdroidDescription;
+        testdroidTarget = other.testdroidTarget;
+        testdroidLocale = other.testdroidLocale;
+        testdroidJUnitWaitTime = other.testdroidJUnitWaitTime;
+        bundleId = other.bundleId;
+        androidPackage = other.androidPackage;
+        androidActivity = other.androidActivity;
+        appFile = other.appFile;
+        fileUUID = other.fileUUID;
+        appiumUrl = other.appiumUrl;
+        platformName = other.platformName;
+        automationName = other.automationName;
+        browserName = other.browserName;
     }
 
     /**
      * Get property from environment or from testdroid.properties. Environment overrides.
      */
-    private synchronized String getProperty(String key) {
+    synchronized String getProperty(String key) {
         try {
             if (testdroidProperties == null) {
                 testdroidProperties = new Properties();
@@ -225,12 +356,6 @@ public class TestdroidAppiumClient {
         return value;
     }
 
-    private synchronized static void initAPI(String cloudUrl, String username, String password) {
-        if (api == null) {
-            api = new DefaultAPIClient(cloudUrl, username, password);
-        }
-    }
-
     public URL getCloudUrl() {
         return cloudUrl;
     }
@@ -275,6 +400,172 @@ public class TestdroidAppiumClient {
         this.deviceWaitTime = secs;
     }
 
+    /**
+     * Set directory for caching uploaded application files, shared by all clients of the same user.
+     *
+     * @param directory Cache directory, or null to upload the application file on every run
+     */
+    public void setUploadCacheDir(File directory) {
+        this.uploadCache = directory != null ? new UploadCache(directory) : null;
+    }
+
+    public File getUploadCacheDir() {
+        return uploadCache != null ? uploadCache.getDirectory() : null;
+    }
+
+    /**
+     * Set number of bytes read from application file and written to the connection at a time when uploading
+     */
+    public void setUploadChunkSize(int uploadChunkSize) {
+        if (uploadChunkSize <= 0) {
+            throw new IllegalArgumentException("Upload chunk size must be positive");
+        }
+        this.uploadChunkSize = uploadChunkSize;
+    }
+
+    public int getUploadChunkSize() {
+        return uploadChunkSize;
+    }
+
+    /**
+     * Set number of times upload is retried after a network or server error, use 0 for no retries
+     */
+    public void setUploadRetries(int uploadRetries) {
+        this.uploadRetries = uploadRetries;
+    }
+
+    public int getUploadRetries() {
+        return uploadRetries;
+    }
+
+    /**
+     * Set listener for upload progress, throughput and retries
+     */
+    public void setUploadProgressListener(UploadProgressListener uploadProgressListener) {
+        this.uploadProgressListener = uploadProgressListener;
+    }
+
+    public File getCommandMetricsFile() {
+        return commandMetricsFile;
+    }
+
+    /**
+     * Set file to write command latency summary to as JSON when quitting. Sessions started with
+     * {@link #getAndroidDrivers(List, int)}, {@link #getIOSDrivers(List, int)} or a {@link SessionPool} write to a
+     * file of their own next to it, named after the device and session.
+     */
+    public void setCommandMetricsFile(File commandMetricsFile) {
+        this.commandMetricsFile = commandMetricsFile;
+    }
+
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    /**
+     * Set file to append traces of session setup and quit to, one JSON document per line
+     */
+    public void setTraceFile(File traceFile) {
+        this.traceFile = traceFile;
+    }
+
+    public SpanExporter.Format getTraceFormat() {
+        return traceFormat;
+    }
+
+    /**
+     * Set format of the trace file, NDJSON by default
+     */
+    public void setTraceFormat(SpanExporter.Format traceFormat) {
+        this.traceFormat = traceFormat;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Set directory to download output files of device sessions to, once their test run has finished. Files of
+     * each test run go to a directory of their own, with a directory for each device session in it.
+     */
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Output files of the latest session, downloaded in background once its test run has finished after quit
+     * <p>
+     * Wait for the futures of all clients at the end of a test suite, instead of fetching results one by one.
+     *
+     * @return Future completed with the downloaded files, null if no output directory is set or no session has
+     * been started in cloud
+     */
+    public Future<List<File>> getOutputFiles() {
+        return outputFiles;
+    }
+
+    /**
+     * Trace of the latest session setup or quit, with timed spans of each phase
+     *
+     * @return Root span, null before the first session
+     */
+    public Span getLastTrace() {
+        return lastTrace;
+    }
+
+    /**
+     * Set maximum number of connections kept open to one host for Appium commands and uploads
+     */
+    public void setHttpMaxConnectionsPerHost(int httpMaxConnectionsPerHost) {
+        if (httpMaxConnectionsPerHost <= 0) {
+            throw new IllegalArgumentException("Maximum number of connections must be positive");
+        }
+        this.httpMaxConnectionsPerHost = httpMaxConnectionsPerHost;
+    }
+
+    public int getHttpMaxConnectionsPerHost() {
+        return httpMaxConnectionsPerHost;
+    }
+
+    /**
+     * Set HTTP connect timeout in seconds, use 0 for no timeout
+     */
+    public void setHttpConnectTimeout(int secs) {
+        this.httpConnectTimeout = secs;
+    }
+
+    public int getHttpConnectTimeout() {
+        return httpConnectTimeout;
+    }
+
+    /**
+     * Set HTTP read timeout in seconds, use 0 for no timeout
+     */
+    public void setHttpReadTimeout(int secs) {
+        this.httpReadTimeout = secs;
+    }
+
+    public int getHttpReadTimeout() {
+        return httpReadTimeout;
+    }
+
+    /**
+     * Set whether sessions of this client are started on virtual threads, also set with testdroid.virtualThreads.
+     * Virtual threads need Java 21, platform threads are used on older Java versions.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private PooledHttpTransport getHttpTransport() {
+        return PooledHttpTransport.get(httpMaxConnectionsPerHost, (int) TimeUnit.SECONDS.toMillis(httpConnectTimeout),
+                (int) TimeUnit.SECONDS.toMillis(httpReadTimeout));
+    }
+
     public void setSignAppFile(boolean sign) {
         this.signAppFile = sign;
     }
@@ -347,6 +638,35 @@ public class TestdroidAppiumClient {
         this.deviceName = deviceName;
     }
 
+    public List<String> getDeviceNames() {
+        return deviceNames;
+    }
+
+    /**
+     * Set acceptable device names. Devices are searched with all the names in parallel and the first free one
+     * is used, so the session does not need to wait for one particular device.
+     *
+     * @param deviceNames Device names, or null to use device name
+     */
+    public void setDeviceNames(List<String> deviceNames) {
+        this.deviceNames = deviceNames != null ? new ArrayList<>(deviceNames) : null;
+    }
+
+    public Predicate<APIDevice> getDeviceFilter() {
+        return deviceFilter;
+    }
+
+    /**
+     * Set filter for acceptable devices, for example
+     * {@code device -> device.getSoftwareVersion().getApiLevel() >= 24}.
+     * <p>
+     * The filter applies to devices found with device names, or to all devices if no device name is set. The
+     * first free device accepted by the filter is used.
+     */
+    public void setDeviceFilter(Predicate<APIDevice> deviceFilter) {
+        this.deviceFilter = deviceFilter;
+    }
+
     public String getFileUUID() {
         return fileUUID;
     }
@@ -407,6 +727,20 @@ public class TestdroidAppiumClient {
         return testRunName;
     }
 
+    /**
+     * @return Name of the device the latest session was started on
+     */
+    String getSessionDeviceName() {
+        return sessionDeviceName != null ? sessionDeviceName : deviceName;
+    }
+
+    /**
+     * @return Name of the test run of the latest session
+     */
+    String getSessionTestRunName() {
+        return sessionTestRunName != null ? sessionTestRunName : testRunName;
+    }
+
     /**
      * Set test run name to use. Will be automatically set to deviceName - timestamp if not set.
      */
@@ -423,37 +757,92 @@ public class TestdroidAppiumClient {
     }
 
     /**
-     * Upload application file to Testroid Appium broker
+     * Upload application file to Testroid Appium broker, unless the same file has already been uploaded and
+     * is still found from upload cache
      *
      * @return File UUID. This can be used in future runs, so there is no need to upload the file every time.
      */
     private String uploadFile() throws Exception {
+        return uploadFile(Span.root("upload"));
+    }
+
+    private String uploadFile(Span span) throws Exception {
         if (appFile == null) {
             throw new Exception("appFile is null");
         }
+        span.setAttribute("file.size", appFile.length());
+        if (uploadCache != null) {
+            AtomicBoolean uploaded = new AtomicBoolean();
+            String uuid = uploadCache.getOrUpload(appFile, appiumUploadUrl.toString(), username, () -> {
+                uploaded.set(true);
+                return postFile();
+            });
+            span.setAttribute("upload.cached", !uploaded.get());
+            return uuid;
+        }
+        return postFile().getUploads().getFile();
+    }
+
+    UploadStatus postFile() throws Exception {
         LOGGER.info("Uploading application {}, {} bytes", appFile.getAbsolutePath(), appFile.length());
 
         final HttpHeaders headers = new HttpHeaders().setBasicAuthentication(username, password);
 
-        HttpRequestFactory requestFactory = HTTP_TRANSPORT.createRequestFactory(request -> request.setHeaders(headers));
-        MultipartFormDataContent multipartContent = new MultipartFormDataContent();
-        FileContent fileContent = new FileContent("application/octet-stream", appFile);
-
-        MultipartFormDataContent.Part filePart = new MultipartFormDataContent.Part("file", fileContent);
-        multipartContent.addPart(filePart);
-
-        HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(appiumUploadUrl), multipartContent);
-        // Extract file UUID
-        HttpResponse response = request.execute();
-
-        AppiumResponse appiumResponse = OBJECT_MAPPER.readValue(response.getContent(), AppiumResponse.class);
-        String fileUUID = appiumResponse.getValue().getUploads().getFile();
-        LOGGER.info("File UUID: '{}'", fileUUID);
+        PooledHttpTransport transport = getHttpTransport();
+        HttpRequestFactory requestFactory = transport.getUploadTransport().createRequestFactory(request -> request
+                .setHeaders(headers)
+                .setConnectTimeout(transport.getConnectTimeout())
+                .setReadTimeout(transport.getReadTimeout()));
+        FileChannelContent fileContent = new FileChannelContent("application/octet-stream", appFile,
+                uploadChunkSize, uploadProgressListener);
+
+        long started = System.nanoTime();
+        int retry = 0;
+        while (true) {
+            MultipartFormDataContent multipartContent = new MultipartFormDataContent();
+            MultipartFormDataContent.Part filePart = new MultipartFormDataContent.Part("file", fileContent);
+            multipartContent.addPart(filePart);
+
+            HttpRequest request = requestFactory.buildPostRequest(new GenericUrl(appiumUploadUrl), multipartContent);
+            // Throughput is measured over the successful attempt only, without failed attempts and backoff
+            long attemptStarted = System.nanoTime();
+            try {
+                // Extract file UUID
+                HttpResponse response = request.execute();
+
+                AppiumResponse appiumResponse = OBJECT_MAPPER.readValue(response.getContent(), AppiumResponse.class);
+                UploadStatus uploadStatus = appiumResponse.getValue();
+                LOGGER.info("Uploaded {} bytes in {} ms, {} KiB/s, {} retries, {} ms in total", appFile.length(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attemptStarted),
+                        (long) (FileChannelContent.bytesPerSecond(appFile.length(), attemptStarted) / 1024), retry,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                LOGGER.info("File UUID: '{}', expires in {} seconds", uploadStatus.getUploads().getFile(),
+                        uploadStatus.getExpiresIn());
+
+                return uploadStatus;
+            } catch (IOException e) {
+                // Client errors will not go away by sending the file again
+                boolean clientError = e instanceof HttpResponseException
+                        && ((HttpResponseException) e).getStatusCode() < 500;
+                if (clientError || retry >= uploadRetries) {
+                    throw e;
+                }
+                retry++;
+                LOGGER.warn("Upload failed after {} of {} bytes, retry {}/{}", fileContent.getBytesSent(),
+                        appFile.length(), retry, uploadRetries, e);
+                if (uploadProgressListener != null) {
+                    uploadProgressListener.onRetry(retry, e);
+                }
+                Thread.sleep(TimeUnit.SECONDS.toMillis(1L << Math.min(retry, 5)));
+            }
+        }
+    }
 
-        return fileUUID;
+    DesiredCapabilities setCommonCapabilities() throws Exception {
+        return setCommonCapabilities(Span.root("capabilities"));
     }
 
-    private DesiredCapabilities setCommonCapabilities() throws Exception {
+    private DesiredCapabilities setCommonCapabilities(Span span) throws Exception {
         // Common desired capabilities
         DesiredCapabilities capabilities = new DesiredCapabilities();
 
@@ -484,11 +873,13 @@ public class TestdroidAppiumClient {
 
         if (appFile != null) {
             LOGGER.info("{} {}", appFile.getAbsoluteFile(), appFile.length());
+            span.setAttribute("file.name", appFile.getName()).setAttribute("file.size", appFile.length());
             capabilities.setCapability("app", appFile.getAbsolutePath());
         }
 
         // @TODO is this needed?? only needed locally?
         capabilities.setCapability("deviceName", deviceName);
+        String sessionDeviceName = deviceName;
 
         // Local vs cloud
         if (appiumUrl.getHost().equals("localhost")) {
@@ -497,9 +888,33 @@ public class TestdroidAppiumClient {
             capabilities.setCapability("automationName", automationName);
         } else {
             LOGGER.info("Cloud URL {}, username {}", cloudUrl.toString(), username);
-            LOGGER.info("Looking for device '{}'", deviceName);
-            initAPI(cloudUrl.toString(), username, password);
-            APIDevice device = getDevice(deviceName);
+            LOGGER.info("Looking for device '{}'", deviceNames != null ? deviceNames : deviceName);
+            api = APIClientCache.get(cloudUrl.toString(), username, password);
+
+            // Upload does not depend on the device, so it runs while the device is looked up and waited for
+            APIDevice device;
+            try (SetupPipeline setup = new SetupPipeline(virtualThreads)) {
+                Future<APIUser> user = setup.submit(
+                        () -> span.run("api.me", s -> DeviceCatalog.getInstance(api).getUser()));
+                Future<APIDevice> foundDevice = setup.submit(() -> span.run("device.lookup", this::getDevice));
+                Future<String> uploadedFileUUID = fileUUID == null
+                        ? setup.submit(() -> span.run("upload", this::uploadFile)) : null;
+                setup.awaitAll();
+
+                APIUser me = user.get();
+                LOGGER.info("Connected to Testdroid Cloud with account {} {}", me.getName(), me.getEmail());
+                device = foundDevice.get();
+                if (uploadedFileUUID != null) {
+                    fileUUID = uploadedFileUUID.get();
+                } else {
+                    LOGGER.info("File UUID '{}' given, no need to upload application", fileUUID);
+                }
+            }
+            if (deviceNames != null || deviceFilter != null) {
+                // Any of several devices was accepted, run on the one found
+                sessionDeviceName = device.getDisplayName();
+                capabilities.setCapability("deviceName", sessionDeviceName);
+            }
             APIDevice.OsType osType = device.getOsType();
             int APILevel = device.getSoftwareVersion().getApiLevel();
             setPlatformName(osType.getDisplayName());
@@ -518,15 +933,11 @@ public class TestdroidAppiumClient {
 
             capabilities.setCapability("platformName", getPlatformName());
             capabilities.setCapability("testdroid_target", testdroidTarget);
+            span.setAttribute("device.name", sessionDeviceName).setAttribute("device.id", device.getId())
+                    .setAttribute("testdroid.target", testdroidTarget);
 
-            if (fileUUID == null) {
-                fileUUID = uploadFile();
-            } else {
-                LOGGER.info("File UUID '{}' given, no need to upload application", fileUUID);
-            }
-
-            final String finalTestRunName = testRunName != null
-                    ? testRunName : String.format("%s %s", deviceName, DATE_FORMAT.format(new Date()));
+            final String finalTestRunName = testRunName != null ? testRunName
+                    : String.format("%s %s", sessionDeviceName, DATE_FORMAT.format(LocalDateTime.now()));
 
             LOGGER.info("Project: {}", projectName);
             LOGGER.info("Test run: {}", finalTestRunName);
@@ -534,7 +945,7 @@ public class TestdroidAppiumClient {
             capabilities.setCapability("testdroid_description", testdroidDescription);
             capabilities.setCapability("testdroid_testrun", finalTestRunName);
             capabilities.setCapability("testdroid_app", fileUUID);
-            capabilities.setCapability("testdroid_device", deviceName);
+            capabilities.setCapability("testdroid_device", sessionDeviceName);
             capabilities.setCapability("testdroid_target", testdroidTarget);
             if (StringUtils.isNotEmpty(testdroidLocale)) {
                 capabilities.setCapability("testdroid_locale", testdroidLocale);
@@ -546,53 +957,18 @@ public class TestdroidAppiumClient {
             capabilities.setCapability(TestdroidAppiumDriver.CAPABILITY_TESTDROID_USERNAME, username);
             capabilities.setCapability(TestdroidAppiumDriver.CAPABILITY_TESTDROID_PASSWORD, password);
 
-            deviceRunMonitorThread = new Thread(() -> {
-                Thread.currentThread().setName("DeviceRunMonitor");
-                Logger logger = LoggerFactory.getLogger(Thread.currentThread().getName());
-                boolean running = true;
-                try {
-                    APIUser me = api.me();
-                    APIProject project = null;
-                    while (running) {
-                        if (project == null) {
-                            List<APIProject> projects = me.getProjectsResource(new Context<>(APIProject.class)
-                                    .addFilter(new StringFilterEntry(NAME, EQ, projectName))).getEntity().getData();
-                            if (projects.size() > 0) {
-                                project = projects.get(0);
-                                logger.info("Found project: #{} {}", project.getId(), project.getName());
-                            }
-                        }
-                        if (project != null) {
-                            APIListResource<APITestRun> testRunResource = project
-                                    .getTestRunsResource(new Context<>(APITestRun.class).setLimit(1)
-                                            .setSearch((finalTestRunName)));
-                            List<APITestRun> testRuns = testRunResource.getEntity().getData();
-                            if (testRuns.size() > 0) {
-                                APITestRun testRun = testRuns.get(0);
-                                logger.info("{}: {}", testRun.getDisplayName(), testRun.getState().toString());
-                                List<APIDeviceSession> sessions = testRun.getDeviceRunsResource().getEntity().getData();
-                                for (APIDeviceSession deviceSession : sessions) {
-                                    logger.info(RESULTS_INFO, deviceSession.getDevice().getDisplayName(),
-                                            deviceSession.getId(), cloudUrl.toString(), me.getId(), project.getId(),
-                                            testRun.getId(), deviceSession.getId());
-                                }
-                                if (APITestRun.State.FINISHED == testRun.getState()) {
-                                    running = false;
-                                }
-                            }
-                            Thread.sleep(30000);
-                        }
-                    }
-                } catch (APIException apiex) {
-                    logger.error("Failed API query, aborting", apiex);
-                } catch (InterruptedException ex) {
-                    logger.info("Interrupted - stopping");
-                }
-            });
-            deviceRunMonitorThread.start();
+            stopDeviceRunMonitor();
+            OutputFileDownloader downloader = outputDirectory == null ? null : new OutputFileDownloader(
+                    cloudUrl.toString(), username, password,
+                    new File(outputDirectory, OutputFileDownloader.toFileName(finalTestRunName)), getHttpTransport());
+            deviceRun = DeviceRunMonitor.getInstance()
+                    .register(api, cloudUrl.toString(), projectName, finalTestRunName, downloader);
+            outputFiles = downloader != null ? deviceRun.getOutputFiles() : null;
+            sessionTestRunName = finalTestRunName;
 
             LOGGER.info("Initializing Appium, server URL {}, user {}", appiumUrl, username);
         }
+        this.sessionDeviceName = sessionDeviceName;
         return capabilities;
     }
 
@@ -603,69 +979,304 @@ public class TestdroidAppiumClient {
      */
     // @TODO Refactor to use proper exceptions not generic one
     public TestdroidAppiumDriverIos getIOSDriver() throws Exception {
-        DesiredCapabilities capabilities = setCommonCapabilities();
-        iOSdriver = new TestdroidAppiumDriverIos(appiumUrl, capabilities);
-        LOGGER.info("Appium connected at {}", appiumUrl);
+        iOSdriver = startSession(APPIUM_PLATFORM_IOS, TestdroidAppiumDriverIos::new);
         return iOSdriver;
     }
 
     public TestdroidAppiumDriverAndroid getAndroidDriver() throws Exception {
-        DesiredCapabilities capabilities = setCommonCapabilities();
-        androidDriver = new TestdroidAppiumDriverAndroid(appiumUrl, capabilities);
-        LOGGER.info("Appium connected at {}", appiumUrl);
+        androidDriver = startSession(APPIUM_PLATFORM_ANDROID, TestdroidAppiumDriverAndroid::new);
         return androidDriver;
     }
 
-    private APIDevice getDevice(String deviceName) throws Exception {
+    private interface DriverConstructor<T extends AppiumDriver> {
+        T create(URL url, DesiredCapabilities capabilities, PooledHttpTransport transport);
+    }
+
+    private <T extends AppiumDriver> T startSession(String platform,
+            DriverConstructor<T> driverConstructor) throws Exception {
+        Span trace = Span.root("session.setup").setAttribute("platform", platform);
+        lastTrace = trace;
         try {
-            APIUser me = api.me();
-            LOGGER.info("Connected to Testdroid Cloud with account {} {}", me.getName(), me.getEmail());
-            Context<APIDevice> ctx = new Context<>(APIDevice.class);
-            ctx.setSearch(deviceName);
-            APIListResource<APIDevice> devicesResource = api.getDevices(ctx);
-            List<APIDevice> devices = devicesResource.getEntity().getData();
+            DesiredCapabilities capabilities = trace.run("capabilities", this::setCommonCapabilities);
+            T driver = trace.run("driver.create", span -> {
+                span.setAttribute("appium.url", appiumUrl.toString());
+                try {
+                    return driverConstructor.create(appiumUrl, capabilities, getHttpTransport());
+                } catch (RuntimeException ex) {
+                    stopDeviceRunMonitor();
+                    throw ex;
+                }
+            });
+            LOGGER.info("Appium connected at {}", appiumUrl);
+            trace.setAttribute("device.name", sessionDeviceName);
+            return driver;
+        } catch (Exception | Error ex) {
+            trace.setError(ex);
+            throw ex;
+        } finally {
+            endTrace(trace);
+        }
+    }
+
+    /**
+     * End the trace and append it to the trace file, if any
+     */
+    private void endTrace(Span trace) {
+        trace.end();
+        LOGGER.debug("{} {}", trace, trace.getChildren());
+        if (traceFile != null) {
+            try {
+                SpanExporter.write(trace, traceFile, traceFormat);
+            } catch (IOException e) {
+                LOGGER.error("Failed writing trace to {}", traceFile, e);
+            }
+        }
+    }
+
+    /**
+     * Start Android sessions on several devices in parallel
+     * <p>
+     * Application file is uploaded only once and shared by all sessions. Each device gets its own client copied
+     * from this one, so the returned sessions can be used and quit independently.
+     *
+     * @param deviceNames Names of the devices in cloud
+     * @param parallelism Maximum number of devices acquired at the same time
+     */
+    public List<DeviceSession<TestdroidAppiumDriverAndroid>> getAndroidDrivers(List<String> deviceNames,
+            int parallelism) throws Exception {
+        return getDrivers(deviceNames, parallelism, TestdroidAppiumClient::getAndroidDriver);
+    }
+
+    /**
+     * Start iOS sessions on several devices in parallel
+     *
+     * @see #getAndroidDrivers(List, int)
+     */
+    public List<DeviceSession<TestdroidAppiumDriverIos>> getIOSDrivers(List<String> deviceNames,
+            int parallelism) throws Exception {
+        return getDrivers(deviceNames, parallelism, TestdroidAppiumClient::getIOSDriver);
+    }
+
+    /**
+     * Start a pool of Android sessions in background, for borrowing ready sessions in tests
+     * <p>
+     * Sessions use copies of this client's configuration, and any device acceptable by the device name, device
+     * names and device filter. Close the pool when done.
+     *
+     * @param size Number of sessions kept open
+     */
+    public SessionPool<TestdroidAppiumDriverAndroid> getAndroidSessionPool(int size) {
+        return new SessionPool<>(this, size, TestdroidAppiumClient::getAndroidDriver);
+    }
+
+    /**
+     * Start a pool of iOS sessions in background
+     *
+     * @see #getAndroidSessionPool(int)
+     */
+    public SessionPool<TestdroidAppiumDriverIos> getIOSSessionPool(int size) {
+        return new SessionPool<>(this, size, TestdroidAppiumClient::getIOSDriver);
+    }
+
+    interface DriverFactory<T extends AppiumDriver> {
+        T create(TestdroidAppiumClient client) throws Exception;
+    }
+
+    private <T extends AppiumDriver> List<DeviceSession<T>> getDrivers(List<String> deviceNames, int parallelism,
+            DriverFactory<T> driverFactory) throws Exception {
+        if (deviceNames.isEmpty()) {
+            throw new Exception("No devices given");
+        }
+        uploadForSessions();
+
+        List<TestdroidAppiumClient> clients = new ArrayList<>();
+        for (String name : deviceNames) {
+            TestdroidAppiumClient client = new TestdroidAppiumClient(this, name);
+            if (client.testRunName == null) {
+                client.testRunName = String.format("%s %s", name, DATE_FORMAT.format(LocalDateTime.now()));
+            }
+            clients.add(client);
+        }
+
+        LOGGER.info("Starting sessions on {} devices, {} at a time", clients.size(), parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, clients.size()),
+                ExecutionThreads.factory("DeviceSession", virtualThreads));
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (TestdroidAppiumClient client : clients) {
+                futures.add(executor.submit(() -> driverFactory.create(client)));
+            }
+            List<DeviceSession<T>> sessions = new ArrayList<>();
+            for (int i = 0; i < clients.size(); i++) {
+                TestdroidAppiumClient client = clients.get(i);
+                try {
+                    sessions.add(new DeviceSession<>(client.deviceName, client, futures.get(i).get(), null));
+                } catch (ExecutionException ex) {
+                    Exception cause = ex.getCause() instanceof Exception
+                            ? (Exception) ex.getCause() : new Exception(ex.getCause());
+                    LOGGER.error("Failed to start session on device '{}'", client.deviceName, cause);
+                    sessions.add(new DeviceSession<>(client.deviceName, client, null, cause));
+                }
+            }
+            return sessions;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Upload application file once for sessions started with copies of this client
+     */
+    synchronized void uploadForSessions() throws Exception {
+        if (fileUUID == null && appFile != null && !appiumUrl.getHost().equals("localhost")) {
+            fileUUID = uploadFile();
+        }
+    }
+
+    /**
+     * Copy configuration of this client for a pooled session, which may use any acceptable device
+     */
+    TestdroidAppiumClient copyForPool() {
+        TestdroidAppiumClient client = new TestdroidAppiumClient(this, deviceName);
+        client.deviceNames = deviceNames;
+        return client;
+    }
+
+    /**
+     * Find device by device name, or the first free one of acceptable device names and device filter
+     */
+    private APIDevice getDevice(Span span) throws Exception {
+        List<String> searches = deviceNames != null
+                ? deviceNames : Collections.singletonList(StringUtils.defaultString(deviceName));
+        Predicate<APIDevice> filter = deviceFilter != null ? deviceFilter : device -> true;
+        String wanted = String.join("', '", searches);
+        span.setAttribute("device.search", wanted);
+        try {
+            List<APIDevice> devices = DeviceWaiter.getInstance().findDevices(api, searches, filter);
+            span.setAttribute("device.candidates", devices.size());
             if (devices.size() == 0) {
-                LOGGER.error("Unable to find device '{}'", deviceName);
+                LOGGER.error("Unable to find device '{}'", wanted);
                 throw new Exception("No device found");
             }
             APIDevice device = devices.get(0);
-            int sleepTime = 10;
-            while (device.isLocked() && deviceWaitTime > 0) {
+            if (device.isLocked() && deviceWaitTime > 0) {
                 LOGGER.info("All devices are in use right now, waiting for {} seconds...", deviceWaitTime);
-                Thread.sleep(sleepTime * 1000);
-                setDeviceWaitTime(deviceWaitTime - sleepTime);
-                devicesResource = api.getDevices(new Context<>(APIDevice.class).setSearch(deviceName));
-                device = devicesResource.getEntity().getData().get(0);
+                Span wait = span.child("device.wait").setAttribute("wait.timeout.seconds", deviceWaitTime);
+                AtomicInteger polls = new AtomicInteger();
+                CompletableFuture<APIDevice> freeDevice = DeviceWaiter.getInstance()
+                        .waitForDevice(api, searches, filter, deviceWaitTime, TimeUnit.SECONDS, polls);
+                try {
+                    device = freeDevice.get();
+                } catch (ExecutionException ex) {
+                    if (!(ex.getCause() instanceof TimeoutException)) {
+                        throw ex;
+                    }
+                    wait.setError(ex.getCause());
+                } finally {
+                    freeDevice.cancel(true);
+                    wait.setAttribute("wait.iterations", polls.get());
+                    wait.end();
+                }
             }
             if (device.isLocked()) {
-                String errorMsg = String.format("Every '%s' is busy at the moment", deviceName);
+                String errorMsg = String.format("Every '%s' is busy at the moment", wanted);
                 LOGGER.error(errorMsg);
                 throw new Exception(errorMsg);
             }
 
-            LOGGER.info("Found device! ID {}", device.getId());
+            LOGGER.info("Found device! ID {} {}", device.getId(), device.getDisplayName());
+            span.setAttribute("device.name", device.getDisplayName()).setAttribute("device.id", device.getId());
             return device;
 
+        } catch (InterruptedException ex) {
+            // Setup was cancelled, for example because the upload failed
+            throw ex;
         } catch (Exception ex) {
-            LOGGER.error("Failed to query API for device '{}'", deviceName, ex);
-            throw new Exception(String.format("Unable to use device '%s'", deviceName));
+            LOGGER.error("Failed to query API for device '{}'", wanted, ex);
+            throw new Exception(String.format("Unable to use device '%s'", wanted));
         }
     }
 
     public void quit() {
         LOGGER.info("Quitting Appium driver");
-        if (deviceRunMonitorThread != null) {
-            deviceRunMonitorThread.interrupt();
+        Span trace = Span.root("session.quit").setAttribute("device.name", sessionDeviceName);
+        lastTrace = trace;
+        try {
+            if (deviceRun != null) {
+                // Keeps following the test run until it has finished, if its output files are downloaded
+                deviceRun.release();
+                deviceRun = null;
+            }
+            AppiumDriver<MobileElement> driver = getCurrentDriver();
+            // Cleared by quitting
+            SessionId sessionId = driver != null ? driver.getSessionId() : null;
+            trace.run("driver.quit", span -> {
+                // No driver if session setup failed
+                if (driver != null) {
+                    driver.quit();
+                }
+                return null;
+            });
+            trace.run("screenshots.wait", span -> {
+                span.setAttribute("screenshots.pending", pendingScreenshots.size());
+                waitForScreenshots();
+                return null;
+            });
+            trace.run("metrics.write", span -> {
+                writeCommandMetrics(sessionId);
+                return null;
+            });
+        } catch (RuntimeException | Error ex) {
+            trace.setError(ex);
+            throw ex;
+        } finally {
+            endTrace(trace);
+        }
+    }
+
+    private void writeCommandMetrics(SessionId sessionId) {
+        if (commandMetricsFile == null || getCurrentDriver() == null) {
+            return;
+        }
+        File file = commandMetricsPerSession
+                ? withSuffix(commandMetricsFile, getSessionDeviceName() + "-" + sessionId)
+                : commandMetricsFile;
+        CommandMetrics metrics = iOSdriver != null ? iOSdriver.getCommandMetrics() : androidDriver.getCommandMetrics();
+        if (metrics instanceof CommandLatencyHistogram) {
+            try {
+                ((CommandLatencyHistogram) metrics).writeJson(file);
+                LOGGER.info("Command latencies written to {}", file.getAbsolutePath());
+            } catch (IOException e) {
+                LOGGER.error("Failed writing command latencies to {}", file, e);
+            }
+        }
+    }
+
+    /**
+     * File next to the given one with suffix added to its name before the extension
+     */
+    private static File withSuffix(File file, String suffix) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String fileName = dot > 0
+                ? name.substring(0, dot) + "-" + OutputFileDownloader.toFileName(suffix) + name.substring(dot)
+                : name + "-" + OutputFileDownloader.toFileName(suffix);
+        return new File(file.getAbsoluteFile().getParentFile(), fileName);
+    }
+
+    private void stopDeviceRunMonitor() {
+        if (deviceRun != null) {
+            deviceRun.cancel();
+            deviceRun = null;
         }
-        getCurrentDriver().quit();
     }
 
     public File screenshot(String name) {
         LOGGER.info("Taking screenshot...");
-        File scrFile = getCurrentDriver().getScreenshotAs(OutputType.FILE);
+        byte[] screenshot = getCurrentDriver().getScreenshotAs(OutputType.BYTES);
         try {
             File testScreenshot = new File(name);
-            FileUtils.copyFile(scrFile, testScreenshot);
+            screenshotIndex.store(testScreenshot, screenshot);
             LOGGER.info("Screenshot stored to {}", testScreenshot.getAbsolutePath());
             if (guiEnabled) {
                 showScreenshot(testScreenshot);
@@ -677,14 +1288,59 @@ public class TestdroidAppiumClient {
         return null;
     }
 
+    /**
+     * Take screenshot and write it to disk in background, so that the test can continue right away
+     * <p>
+     * Blocks only if too many screenshots are already waiting to be written. Pending screenshots are waited for
+     * when the client quits.
+     *
+     * @return Future completed with the screenshot file once written
+     */
+    public Future<File> screenshotAsync(String name) throws InterruptedException {
+        LOGGER.info("Taking screenshot...");
+        byte[] screenshot = getCurrentDriver().getScreenshotAs(OutputType.BYTES);
+        Future<File> future = ScreenshotWriter.getInstance()
+                .write(screenshot, new File(name), screenshotIndex, guiEnabled ? this::showScreenshot : null);
+        pendingScreenshots.removeIf(Future::isDone);
+        pendingScreenshots.add(future);
+        return future;
+    }
+
+    /**
+     * Set whether screenshots taken with this client are shown in a window, enabled also with testdroid.gui
+     */
+    public void setGuiEnabled(boolean guiEnabled) {
+        this.guiEnabled = guiEnabled;
+    }
+
+    public boolean isGuiEnabled() {
+        return guiEnabled;
+    }
+
+    /**
+     * Index of screenshots taken with this client, for example for checking if a screen has been seen before
+     */
+    public ScreenshotIndex getScreenshotIndex() {
+        return screenshotIndex;
+    }
+
+    private void waitForScreenshots() {
+        Future<File> future;
+        while ((future = pendingScreenshots.poll()) != null) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                LOGGER.error("Failed storing screenshot", ex.getCause());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
     private void showScreenshot(File screenshot) {
         try { // lets catch everything so that test goes trough even if problem with GUI
-            if (screenshotDisplay != null) {
-                //screenshotDisplay.dispatchEvent(new WindowEvent(screenshotDisplay, WindowEvent.WINDOW_CLOSING));
-                screenshotDisplay.dispose();
-            }
-            screenshotDisplay = new ScreenshotDisplay();
-            screenshotDisplay.show(screenshot);
+            ScreenshotDisplay.getInstance().show(screenshot);
         } catch (Exception ex) {
             LOGGER.error("Failed displaying screenshot - test run will still continue", ex);
         }
@@ -2,17 +2,22 @@ package com.testdroid.appium;
 
 import io.appium.java_client.ios.IOSDriver;
 
-import org.apache.commons.io.FileUtils;
 import org.openqa.selenium.OutputType;
+import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.HasTouchScreen;
 import org.openqa.selenium.interactions.TouchScreen;
 import org.openqa.selenium.remote.DesiredCapabilities;
 import org.openqa.selenium.remote.RemoteTouchScreen;
+import org.openqa.selenium.remote.Response;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Testdroid Appium driver
@@ -34,18 +39,123 @@ public class TestdroidAppiumDriverIos extends IOSDriver implements HasTouchScree
 
     public RemoteTouchScreen touch;
 
+    // Not initialized in declaration, commands are already sent from the superclass constructor, which creates it
+    private volatile DriverExtensions extensions;
+
     public TestdroidAppiumDriverIos(URL url, DesiredCapabilities capabilities) {
         super(url, capabilities);
         touch = new RemoteTouchScreen(getExecuteMethod());
     }
 
+    /**
+     * Send commands through the pooled HTTP client of the transport once the session has started
+     */
+    TestdroidAppiumDriverIos(URL url, DesiredCapabilities capabilities, PooledHttpTransport transport) {
+        this(url, capabilities);
+        setCommandExecutor(transport.createCommandExecutor(getCommandExecutor()));
+    }
+
     public TouchScreen getTouch() {
         return touch;
     }
 
+    private DriverExtensions extensions() {
+        if (extensions == null) {
+            extensions = new DriverExtensions(this, null);
+        }
+        return extensions;
+    }
+
+    /**
+     * @return Metrics receiving the duration of every command, {@link CommandLatencyHistogram} by default
+     */
+    public CommandMetrics getCommandMetrics() {
+        return extensions().getCommandMetrics();
+    }
+
+    public void setCommandMetrics(CommandMetrics commandMetrics) {
+        extensions().setCommandMetrics(commandMetrics);
+    }
+
+    // Raw Map, as this driver extends the raw Appium driver type
+    @Override
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public Response execute(String driverCommand, Map parameters) {
+        return extensions().execute(driverCommand, parameters, super::execute);
+    }
+
+    /**
+     * Cache elements found by driver level lookups until a navigation command is sent. Use
+     * {@link ElementCache#setScope(java.util.function.Supplier)} to drop cached elements also when the screen changes.
+     *
+     * @return Cache, for example for reading hit and miss counts
+     */
+    public ElementCache enableElementCache() {
+        return extensions().enableElementCache();
+    }
+
+    /**
+     * Get page source snapshot for answering XPath queries locally, fetched again only after a command that may
+     * change the screen
+     */
+    public PageSnapshot getPageSnapshot() {
+        return extensions().getPageSnapshot();
+    }
+
+    /**
+     * Fetch page source snapshot, for example after the application has changed the screen by itself
+     */
+    public PageSnapshot refreshPageSnapshot() {
+        return extensions().refreshPageSnapshot();
+    }
+
+    public void disableElementCache() {
+        extensions().disableElementCache();
+    }
+
+    /**
+     * @return Element cache, or null if not enabled
+     */
+    public ElementCache getElementCache() {
+        return extensions().getElementCache();
+    }
+
+    /**
+     * Waits polling from the settle times learned for the application, instead of fixed sleeps
+     */
+    public AdaptiveWait waits() {
+        return extensions().waits();
+    }
+
+    @Override
+    protected WebElement findElement(String by, String using) {
+        return extensions().findElement(by, using, super::findElement);
+    }
+
+    @Override
+    public void quit() {
+        extensions().quit(super::quit);
+    }
+
     public void takeScreenshot(String filePath) throws Exception {
-        File f = getScreenshotAs(OutputType.FILE);
-        FileUtils.copyFile(f, new File(filePath));
+        byte[] screenshot = getScreenshotAs(OutputType.BYTES);
+        Files.write(Paths.get(filePath), screenshot);
         logger.info("Screenshot captured: {}", filePath);
     }
+
+    /**
+     * Take screenshot and write it to disk in background
+     *
+     * @return Future completed with the screenshot file once written
+     */
+    public Future<File> takeScreenshotAsync(String filePath) throws InterruptedException {
+        return extensions().takeScreenshotAsync(filePath);
+    }
+
+    /**
+     * Start a batch of element lookups and actions, sent with as few round trips as possible
+     */
+    public CommandBatch batch() {
+        return extensions().batch();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package com.testdroid.appium;
+
+import com.testdroid.appium.model.UploadStatus;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persistent cache of application files uploaded to Testdroid Appium broker.
+ * <p>
+ * Entries are keyed by SHA-256 of the file content, upload URL and user, and hold the file UUID returned by the
+ * broker until the upload expires. Access to an entry is serialized with a file lock, so processes sharing the
+ * cache directory upload the same build only once.
+ */
+class UploadCache {
+
+    /**
+     * Performs the actual upload when there is no valid cache entry
+     */
+    interface Uploader {
+        UploadStatus upload() throws Exception;
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(UploadCache.class);
+
+    // Do not hand out UUIDs that expire before the session has been created
+    private static final long EXPIRY_MARGIN = TimeUnit.MINUTES.toMillis(5);
+
+    private static final String KEY_UUID = "uuid";
+    private static final String KEY_FILE = "file";
+    private static final String KEY_EXPIRES = "expires";
+
+    // FileChannel locks are held per JVM, so threads of the same JVM have to be serialized separately
+    private static final ConcurrentMap<String, Object> LOCAL_LOCKS = new ConcurrentHashMap<>();
+
+    private final File directory;
+
+    UploadCache(File directory) {
+        this.directory = directory;
+    }
+
+    File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Get file UUID for the application, uploading it only if there is no valid cache entry
+     */
+    String getOrUpload(File appFile, String uploadUrl, String username, Uploader uploader) throws Exception {
+        String key = key(appFile, uploadUrl, username);
+        Object localLock = LOCAL_LOCKS.computeIfAbsent(key, k -> new Object());
+        synchronized (localLock) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                LOGGER.warn("Unable to create upload cache directory {}, uploading without cache", directory);
+                return upload(uploader).getUploads().getFile();
+            }
+            File lockFile = new File(directory, key + ".lock");
+            try (FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+                 FileLock ignored = channel.lock()) {
+                File entryFile = new File(directory, key + ".properties");
+                String fileUUID = read(entryFile);
+                if (fileUUID != null) {
+                    LOGGER.info("Application {} found from upload cache, file UUID '{}'", appFile.getName(), fileUUID);
+                    return fileUUID;
+                }
+                UploadStatus status = upload(uploader);
+                fileUUID = status.getUploads().getFile();
+                write(entryFile, appFile, fileUUID, status.getExpiresIn());
+                return fileUUID;
+            }
+        }
+    }
+
+    private UploadStatus upload(Uploader uploader) throws Exception {
+        UploadStatus status = uploader.upload();
+        if (status == null || status.getUploads() == null || status.getUploads().getFile() == null) {
+            throw new Exception("Upload response did not contain file UUID");
+        }
+        return status;
+    }
+
+    private String read(File entryFile) {
+        if (!entryFile.isFile()) {
+            return null;
+        }
+        Properties entry = new Properties();
+        try (InputStream in = new FileInputStream(entryFile)) {
+            entry.load(in);
+        } catch (IOException e) {
+            LOGGER.warn("Failed reading upload cache entry {}", entryFile, e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            // Malformed escape, the entry is corrupt
+            LOGGER.warn("Deleting corrupt upload cache entry {}", entryFile, e);
+            entryFile.delete();
+            return null;
+        }
+        long expires;
+        try {
+            expires = Long.parseLong(entry.getProperty(KEY_EXPIRES, "0"));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Deleting corrupt upload cache entry {}", entryFile, e);
+            entryFile.delete();
+            return null;
+        }
+        if (expires - EXPIRY_MARGIN < System.currentTimeMillis()) {
+            LOGGER.info("Upload cache entry for {} has expired", entry.getProperty(KEY_FILE));
+            entryFile.delete();
+            return null;
+        }
+        return entry.getProperty(KEY_UUID);
+    }
+
+    private void write(File entryFile, File appFile, String fileUUID, Integer expiresIn) {
+        if (expiresIn == null || expiresIn <= 0) {
+            LOGGER.info("Upload of {} has no expiration time, not caching it", appFile.getName());
+            return;
+        }
+        Properties entry = new Properties();
+        entry.setProperty(KEY_UUID, fileUUID);
+        entry.setProperty(KEY_FILE, appFile.getAbsolutePath());
+        entry.setProperty(KEY_EXPIRES,
+                Long.toString(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(expiresIn)));
+        // Write to a temporary file first so that a crash never leaves a partial entry behind
+        File tmpFile = new File(directory, entryFile.getName() + ".tmp");
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            entry.store(out, null);
+        } catch (IOException e) {
+            LOGGER.warn("Failed writing upload cache entry {}", entryFile, e);
+            return;
+        }
+        if (!tmpFile.renameTo(entryFile)) {
+            entryFile.delete();
+            if (!tmpFile.renameTo(entryFile)) {
+                LOGGER.warn("Failed storing upload cache entry {}", entryFile);
+            }
+        }
+    }
+
+    private static String key(File appFile, String uploadUrl, String username) throws IOException {
+        String contentHash;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(appFile))) {
+            contentHash = DigestUtils.sha256Hex(in);
+        }
+        String identity = String.format("%s\n%s\n%s", contentHash, uploadUrl, username);
+        return DigestUtils.sha256Hex(identity.getBytes(StandardCharsets.UTF_8));
+    }
+}
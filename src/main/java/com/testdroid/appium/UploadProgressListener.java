@@ -0,0 +1,25 @@
+package com.testdroid.appium;
+
+/**
+ * Receives progress of application file upload to Testdroid Appium broker
+ */
+public interface UploadProgressListener {
+
+    /**
+     * Called after each chunk written to the connection
+     *
+     * @param bytesSent      Bytes of the file sent so far in the current attempt
+     * @param totalBytes     Size of the file
+     * @param bytesPerSecond Average throughput of the current attempt
+     */
+    void onProgress(long bytesSent, long totalBytes, double bytesPerSecond);
+
+    /**
+     * Called before upload is retried after a failed attempt
+     *
+     * @param retry Number of the retry, starting from 1
+     * @param cause Failure of the previous attempt
+     */
+    default void onRetry(int retry, Exception cause) {
+    }
+}
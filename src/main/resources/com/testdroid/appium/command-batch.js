@@ -0,0 +1,45 @@
+// Resolves the lookups of a command batch in one round trip, see CommandBatch
+var lookups = arguments[0];
+
+function toArray(nodes) {
+    return Array.prototype.slice.call(nodes);
+}
+
+function find(using, value) {
+    switch (using) {
+        case 'id':
+            var element = document.getElementById(value);
+            return element ? [element] : [];
+        case 'name':
+            return toArray(document.getElementsByName(value));
+        case 'class name':
+            return toArray(document.getElementsByClassName(value));
+        case 'tag name':
+            return toArray(document.getElementsByTagName(value));
+        case 'css selector':
+            return toArray(document.querySelectorAll(value));
+        case 'xpath':
+            var snapshot = document.evaluate(value, document, null, XPathResult.ORDERED_NODE_SNAPSHOT_TYPE, null);
+            var found = [];
+            for (var i = 0; i < snapshot.snapshotLength; i++) {
+                found.push(snapshot.snapshotItem(i));
+            }
+            return found;
+        default: // link text, partial link text
+            return toArray(document.getElementsByTagName('a')).filter(function (link) {
+                var text = (link.innerText || link.textContent || '').trim();
+                return using === 'link text' ? text === value : text.indexOf(value) >= 0;
+            });
+    }
+}
+
+return lookups.map(function (lookup) {
+    var found = find(lookup.using, lookup.value);
+    if (lookup.all) {
+        return found;
+    }
+    if (found.length === 0) {
+        return null;
+    }
+    return lookup.text ? (found[0].innerText || found[0].textContent || '').trim() : found[0];
+});
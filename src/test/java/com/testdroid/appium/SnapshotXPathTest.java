@@ -0,0 +1,125 @@
+package com.testdroid.appium;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * XPath subset answered from page snapshots, checked against the expected elements and a full XPath implementation
+ */
+public class SnapshotXPathTest {
+
+    private static final String SOURCE = "<hierarchy>"
+            + "<android.widget.FrameLayout index=\"0\">"
+            + "<android.widget.LinearLayout index=\"0\">"
+            + "<android.widget.TextView index=\"0\" content-desc=\"\">First</android.widget.TextView>"
+            + "<android.widget.TextView index=\"1\" content-desc=\"Second item\">Second</android.widget.TextView>"
+            + "<android.widget.Button index=\"2\" resource-id=\"com.example:id/ok\">OK</android.widget.Button>"
+            + "<android.widget.TextView index=\"3\"/>"
+            + "</android.widget.LinearLayout>"
+            + "<android.widget.LinearLayout index=\"1\">"
+            + "<android.widget.TextView index=\"0\" content-desc=\"Fourth\">Fourth item</android.widget.TextView>"
+            + "<android.widget.Button index=\"1\">Cancel</android.widget.Button>"
+            + "</android.widget.LinearLayout>"
+            + "</android.widget.FrameLayout>"
+            + "</hierarchy>";
+
+    private PageSnapshot snapshot;
+
+    @Before
+    public void setUp() {
+        snapshot = new PageSnapshot(null, SOURCE);
+    }
+
+    @Test
+    public void selectsSteps() throws Exception {
+        assertMatches("//android.widget.TextView", "First", "Second", "", "Fourth item");
+        assertMatches("/hierarchy/*/*/android.widget.Button", "OK", "Cancel");
+        assertMatches("//android.widget.FrameLayout//android.widget.Button", "OK", "Cancel");
+        assertMatches("//android.widget.ImageView");
+    }
+
+    @Test
+    public void selectsPositions() throws Exception {
+        assertMatches("/hierarchy/android.widget.FrameLayout/android.widget.LinearLayout[2]/android.widget.Button",
+                "Cancel");
+        // Positions count among the children of each parent
+        assertMatches("//android.widget.TextView[1]", "First", "Fourth item");
+        assertMatches("//android.widget.TextView[last()]", "", "Fourth item");
+        assertMatches("//android.widget.TextView[5]");
+        // Positions count within the result of the previous predicate
+        assertMatches("//android.widget.TextView[@content-desc][2]", "Second");
+    }
+
+    @Test
+    public void comparesText() throws Exception {
+        assertMatches("//*[text()='OK']", "OK");
+        assertMatches("//android.widget.TextView[text()]", "First", "Second", "Fourth item");
+        assertMatches("//*[text()!='OK' and @index='1']", "Second", "Cancel");
+    }
+
+    @Test
+    public void comparesAttributes() throws Exception {
+        assertMatches("//*[@resource-id='com.example:id/ok']", "OK");
+        assertMatches("//android.widget.TextView[@index>1]", "");
+        assertMatches("//android.widget.TextView[@index='0' or @content-desc='Second item']",
+                "First", "Second", "Fourth item");
+    }
+
+    @Test
+    public void matchesFunctions() throws Exception {
+        assertMatches("//*[contains(text(), 'item')]", "Fourth item");
+        assertMatches("//*[contains(@content-desc, 'item')]", "Second");
+        assertMatches("//*[starts-with(@resource-id, 'com.example:id/')]", "OK");
+        assertMatches("//android.widget.Button[not(starts-with(text(), 'O'))]", "Cancel");
+    }
+
+    @Test
+    public void matchesPresentAttributes() throws Exception {
+        // Empty attributes are present too
+        assertMatches("//android.widget.TextView[@content-desc]", "First", "Second", "Fourth item");
+        assertMatches("//android.widget.TextView[not(@content-desc)]", "");
+        assertMatches("//android.widget.Button[@resource-id]", "OK");
+    }
+
+    @Test
+    public void rejectsUnsupportedExpressions() {
+        for (String xpath : Arrays.asList("(//android.widget.TextView)[1]", "//android.widget.Button/parent::*",
+                "//android.widget.Button/text()", "//*[position()>1]", "count(//android.widget.Button)",
+                "//android.widget.TextView[@index=", "android.widget.TextView")) {
+            assertNull(xpath, SnapshotXPath.compile(xpath));
+        }
+        // Left to the full XPath implementation
+        assertEquals(Arrays.asList("First"), snapshot.getTexts("(//android.widget.TextView)[1]"));
+    }
+
+    private void assertMatches(String xpath, String... texts) throws Exception {
+        assertNotNull("Not compiled: " + xpath, SnapshotXPath.compile(xpath));
+        assertEquals(xpath, Arrays.asList(texts), snapshot.getTexts(xpath));
+        assertEquals("Full XPath of " + xpath, Arrays.asList(texts), evaluateWithJdk(xpath));
+    }
+
+    private static List<String> evaluateWithJdk(String xpath) throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new InputSource(new StringReader(SOURCE)));
+        NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath()
+                .evaluate(xpath, document, XPathConstants.NODESET);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            texts.add(nodes.item(i).getTextContent().trim());
+        }
+        return texts;
+    }
+}
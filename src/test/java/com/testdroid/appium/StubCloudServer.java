@@ -0,0 +1,974 @@
+package com.testdroid.appium;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embeddable stub of the Testdroid Appium broker and Testdroid API, for load and latency testing without network
+ * access
+ * <p>
+ * Serves WebDriver sessions and commands under {@code /wd/hub}, application uploads at {@code /upload} and the
+ * API paths used for finding devices, following test runs and downloading their output files under
+ * {@code /api/v2}. A session locks the device
+ * it runs on until quit, so clients wait for devices like they do in the cloud. Latency and failures can be
+ * injected per endpoint.
+ * <p>
+ * The JDK server closes idle keep-alive connections beyond 200, which pooled clients then find reset. Under
+ * heavier load, start the JVM with {@code -Dsun.net.httpserver.maxIdleConnections} set higher.
+ * <pre>
+ * try (StubCloudServer server = new StubCloudServer()) {
+ *     server.addDevice("Stub Android", StubCloudServer.ANDROID, 28);
+ *     server.setLatency(StubCloudServer.Endpoint.COMMAND, 50, 150, TimeUnit.MILLISECONDS);
+ *     server.start();
+ *     server.configure(client);
+ *     ...
+ * }
+ * </pre>
+ */
+public class StubCloudServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubCloudServer.class);
+
+    public static final String ANDROID = "ANDROID";
+    public static final String IOS = "IOS";
+
+    public enum Endpoint {
+        SESSION, COMMAND, UPLOAD, API, DOWNLOAD
+    }
+
+    // JSON wire protocol status codes
+    private static final int STATUS_NO_SUCH_SESSION = 6;
+    private static final int STATUS_UNKNOWN_ERROR = 13;
+    private static final int STATUS_SESSION_NOT_CREATED = 33;
+
+    private static final String API_PATH = "/api/v2/";
+
+    private static final AtomicInteger SERVER_COUNT = new AtomicInteger();
+
+    private static final class Latency {
+
+        private final long min;
+
+        private final long max;
+
+        Latency(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+    }
+
+    private static final class Device {
+
+        private final long id;
+
+        private final String displayName;
+
+        private final String osType;
+
+        private final int apiLevel;
+
+        // Guarded by the server
+        private String sessionId;
+        private long lockedUntil;
+
+        Device(long id, String displayName, String osType, int apiLevel) {
+            this.id = id;
+            this.displayName = displayName;
+            this.osType = osType;
+            this.apiLevel = apiLevel;
+        }
+
+        boolean isLocked(long now) {
+            return sessionId != null || lockedUntil > now;
+        }
+    }
+
+    private static final class Session {
+
+        private final String id;
+
+        private final Map<String, Object> capabilities;
+
+        private final Device device;
+
+        private final TestRun testRun;
+
+        private final AtomicInteger elementCount = new AtomicInteger();
+
+        Session(String id, Map<String, Object> capabilities, Device device, TestRun testRun) {
+            this.id = id;
+            this.capabilities = capabilities;
+            this.device = device;
+            this.testRun = testRun;
+        }
+    }
+
+    private static final class Project {
+
+        private final long id;
+
+        private final String name;
+
+        private final List<TestRun> testRuns = new ArrayList<>();
+
+        Project(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static final class TestRun {
+
+        private final long id;
+
+        private final String displayName;
+
+        private final List<Device> devices = new ArrayList<>();
+
+        private int running;
+
+        TestRun(long id, String displayName) {
+            this.id = id;
+            this.displayName = displayName;
+        }
+    }
+
+    private static final class OutputFile {
+
+        private final long id;
+
+        private final String name;
+
+        private final byte[] content;
+
+        private final String md5;
+
+        OutputFile(long id, String name, byte[] content) {
+            this.id = id;
+            this.name = name;
+            this.content = content;
+            this.md5 = DigestUtils.md5Hex(content);
+        }
+    }
+
+    private final Map<Endpoint, Latency> latencies = new EnumMap<>(Endpoint.class);
+
+    private final Map<Endpoint, Double> failureRates = new EnumMap<>(Endpoint.class);
+
+    private final Map<Endpoint, AtomicLong> requestCounts = new EnumMap<>(Endpoint.class);
+
+    private final Map<Endpoint, AtomicLong> failureCounts = new EnumMap<>(Endpoint.class);
+
+    private final AtomicLong downloadedBytes = new AtomicLong();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    // Guarded by this
+    private final List<Device> devices = new ArrayList<>();
+    private final Map<String, Session> sessions = new HashMap<>();
+    private final Map<String, Project> projects = new LinkedHashMap<>();
+    private final List<OutputFile> outputFiles = new ArrayList<>();
+    private boolean lockDeviceOnSession = true;
+    private long unlockDelay;
+
+    private volatile byte[] screenshot;
+
+    private volatile String pageSource = "<?xml version='1.0' encoding='UTF-8' standalone='yes' ?><hierarchy>"
+            + "<android.widget.FrameLayout index=\"0\" class=\"android.widget.FrameLayout\" text=\"\">"
+            + "<android.widget.TextView index=\"0\" class=\"android.widget.TextView\" text=\"Stub\"/>"
+            + "</android.widget.FrameLayout></hierarchy>";
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public StubCloudServer() {
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new Latency(0, 0));
+            failureRates.put(endpoint, 0.0);
+            requestCounts.put(endpoint, new AtomicLong());
+            failureCounts.put(endpoint, new AtomicLong());
+        }
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB), "png", png);
+            screenshot = png.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Add a device, several devices may have the same name like device units in the cloud
+     *
+     * @param osType {@link #ANDROID} or {@link #IOS}
+     * @param apiLevel Android API level, 0 for iOS
+     */
+    public synchronized void addDevice(String displayName, String osType, int apiLevel) {
+        devices.add(new Device(ids.incrementAndGet(), displayName, osType, apiLevel));
+    }
+
+    /**
+     * Delay responses of the endpoint by a random time between min and max
+     */
+    public synchronized void setLatency(Endpoint endpoint, long min, long max, TimeUnit unit) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException("Latency must be non-negative and max at least min");
+        }
+        latencies.put(endpoint, new Latency(unit.toNanos(min), unit.toNanos(max)));
+    }
+
+    /**
+     * Fail the given fraction of requests to the endpoint with a server error
+     */
+    public synchronized void setFailureRate(Endpoint endpoint, double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("Failure rate must be between 0 and 1");
+        }
+        failureRates.put(endpoint, rate);
+    }
+
+    /**
+     * Set whether a session locks its device, so that sessions on a busy device are refused. Enabled by default.
+     */
+    public synchronized void setLockDeviceOnSession(boolean lockDeviceOnSession) {
+        this.lockDeviceOnSession = lockDeviceOnSession;
+    }
+
+    /**
+     * Keep devices locked for a while after their session is quit, like while the cloud cleans them up
+     */
+    public synchronized void setUnlockDelay(long delay, TimeUnit unit) {
+        this.unlockDelay = unit.toMillis(delay);
+    }
+
+    /**
+     * Lock every device with the name for a while, as if used by someone else
+     */
+    public synchronized void lockDevice(String displayName, long duration, TimeUnit unit) {
+        long until = System.currentTimeMillis() + unit.toMillis(duration);
+        for (Device device : devices) {
+            if (device.displayName.equals(displayName)) {
+                device.lockedUntil = Math.max(device.lockedUntil, until);
+            }
+        }
+    }
+
+    /**
+     * Add a file to the output files of every device session
+     * <p>
+     * Injected {@link Endpoint#DOWNLOAD} failures send half of the file and drop the connection, so that clients
+     * have to resume the download.
+     */
+    public synchronized void addOutputFile(String name, byte[] content) {
+        outputFiles.add(new OutputFile(ids.incrementAndGet(), name, content));
+    }
+
+    /**
+     * Set PNG image returned as screenshot
+     */
+    public void setScreenshot(byte[] screenshot) {
+        this.screenshot = screenshot;
+    }
+
+    /**
+     * Set XML returned as page source
+     */
+    public void setPageSource(String pageSource) {
+        this.pageSource = pageSource;
+    }
+
+    /**
+     * Start on a free port of the loopback interface
+     */
+    public void start() throws IOException {
+        start(0);
+    }
+
+    public synchronized void start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        if (devices.isEmpty()) {
+            addDevice("Stub Android", ANDROID, 28);
+            addDevice("Stub iPhone", IOS, 0);
+        }
+        String name = "StubCloudServer-" + SERVER_COUNT.incrementAndGet();
+        // Unbounded, so that injected latency delays only the request it is injected to
+        executor = Executors.newCachedThreadPool(ExecutionThreads.factory(name));
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/wd/hub/", this::handleWebDriver);
+        server.createContext("/upload", this::handleUpload);
+        server.createContext("/oauth/token", this::handleToken);
+        server.createContext(API_PATH, this::handleApi);
+        server.start();
+        LOGGER.info("Stub cloud server listening on port {}", getPort());
+    }
+
+    @Override
+    public synchronized void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    public synchronized int getPort() {
+        if (server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return URL of the API, using the loopback address instead of localhost so that clients use the cloud
+     * code path
+     */
+    public URL getCloudUrl() throws MalformedURLException {
+        return new URL("http", "127.0.0.1", getPort(), "");
+    }
+
+    public URL getAppiumUrl() throws MalformedURLException {
+        return new URL("http", "127.0.0.1", getPort(), "/wd/hub");
+    }
+
+    public URL getAppiumUploadUrl() throws MalformedURLException {
+        return new URL("http", "127.0.0.1", getPort(), "/upload");
+    }
+
+    /**
+     * Point the client to this server, with stub credentials unless it already has some
+     */
+    public void configure(TestdroidAppiumClient client) throws MalformedURLException {
+        client.setCloudUrl(getCloudUrl());
+        client.setAppiumUrl(getAppiumUrl());
+        client.setAppiumUploadUrl(getAppiumUploadUrl());
+        if (client.getUsername() == null) {
+            client.setUsername("stub@example.com");
+            client.setPassword("stub");
+        }
+    }
+
+    public long getRequestCount(Endpoint endpoint) {
+        return requestCounts.get(endpoint).get();
+    }
+
+    /**
+     * @return Number of injected failures
+     */
+    public long getFailureCount(Endpoint endpoint) {
+        return failureCounts.get(endpoint).get();
+    }
+
+    /**
+     * @return Number of output file bytes sent
+     */
+    public long getDownloadedBytes() {
+        return downloadedBytes.get();
+    }
+
+    public synchronized int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Count the request, delay it and decide whether it fails
+     *
+     * @return True if the request should fail
+     */
+    private boolean inject(Endpoint endpoint) {
+        requestCounts.get(endpoint).incrementAndGet();
+        Latency latency;
+        double failureRate;
+        synchronized (this) {
+            latency = latencies.get(endpoint);
+            failureRate = failureRates.get(endpoint);
+        }
+        if (latency.max > 0) {
+            long delay = latency.min + ThreadLocalRandom.current().nextLong(latency.max - latency.min + 1);
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failureCounts.get(endpoint).incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void handleWebDriver(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = readBody(exchange);
+            String method = exchange.getRequestMethod();
+            List<String> path = split(exchange.getRequestURI().getPath().substring("/wd/hub/".length()));
+            if (path.size() == 1 && path.get(0).equals("session") && method.equals("POST")) {
+                if (inject(Endpoint.SESSION)) {
+                    sendWebDriver(exchange, 500, null, STATUS_SESSION_NOT_CREATED, error("Injected failure"));
+                    return;
+                }
+                startSession(exchange, body);
+                return;
+            }
+            if (path.size() == 1 && path.get(0).equals("status")) {
+                sendWebDriver(exchange, 200, null, 0, Collections.singletonMap("build", "stub"));
+                return;
+            }
+            if (path.size() < 2 || !path.get(0).equals("session")) {
+                sendWebDriver(exchange, 404, null, STATUS_UNKNOWN_ERROR, error("Unknown command " + path));
+                return;
+            }
+            String sessionId = path.get(1);
+            Session session;
+            synchronized (this) {
+                session = sessions.get(sessionId);
+            }
+            if (session == null) {
+                sendWebDriver(exchange, 404, sessionId, STATUS_NO_SUCH_SESSION, error("No such session"));
+                return;
+            }
+            boolean quit = path.size() == 2 && method.equals("DELETE");
+            if (inject(quit ? Endpoint.SESSION : Endpoint.COMMAND)) {
+                sendWebDriver(exchange, 500, sessionId, STATUS_UNKNOWN_ERROR, error("Injected failure"));
+                return;
+            }
+            if (quit) {
+                endSession(session);
+                sendWebDriver(exchange, 200, sessionId, 0, null);
+                return;
+            }
+            sendWebDriver(exchange, 200, sessionId, 0, command(session, method, path.subList(2, path.size())));
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed handling {}", exchange.getRequestURI(), ex);
+            sendWebDriver(exchange, 500, null, STATUS_UNKNOWN_ERROR, error(ex.toString()));
+        }
+    }
+
+    private void startSession(HttpExchange exchange, byte[] body) throws IOException {
+        Map<String, Object> request = body.length > 0
+                ? TestdroidAppiumClient.OBJECT_MAPPER.readValue(body, new TypeReference<Map<String, Object>>() {
+        }) : Collections.emptyMap();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> capabilities = request.get("desiredCapabilities") instanceof Map
+                ? new LinkedHashMap<>((Map<String, Object>) request.get("desiredCapabilities"))
+                : new LinkedHashMap<>();
+        String deviceName = capabilityOf(capabilities, "testdroid_device", "deviceName");
+        String projectName = StringUtils.defaultIfEmpty(capabilityOf(capabilities, "testdroid_project"),
+                "Appium Project");
+        String testRunName = StringUtils.defaultIfEmpty(capabilityOf(capabilities, "testdroid_testrun"),
+                "Test Run " + ids.incrementAndGet());
+        String sessionId = UUID.randomUUID().toString();
+        Session session = null;
+        String message = null;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            Device device = null;
+            boolean found = false;
+            for (Device candidate : devices) {
+                if (deviceName == null || candidate.displayName.equals(deviceName)) {
+                    found = true;
+                    if (!lockDeviceOnSession || !candidate.isLocked(now)) {
+                        device = candidate;
+                        break;
+                    }
+                }
+            }
+            if (device == null) {
+                message = found ? "Device '" + deviceName + "' is in use" : "No device '" + deviceName + "'";
+            } else {
+                session = createSession(sessionId, capabilities, device, projectName, testRunName);
+            }
+        }
+        if (session == null) {
+            sendWebDriver(exchange, 500, null, STATUS_SESSION_NOT_CREATED, error(message));
+            return;
+        }
+        sendWebDriver(exchange, 200, sessionId, 0, session.capabilities);
+    }
+
+    private synchronized Session createSession(String sessionId, Map<String, Object> capabilities, Device device,
+                                               String projectName, String testRunName) {
+        if (lockDeviceOnSession) {
+            device.sessionId = sessionId;
+        }
+        Project project = projects.computeIfAbsent(projectName,
+                name -> new Project(ids.incrementAndGet(), name));
+        TestRun testRun = null;
+        for (TestRun existing : project.testRuns) {
+            if (existing.displayName.equals(testRunName)) {
+                testRun = existing;
+            }
+        }
+        if (testRun == null) {
+            testRun = new TestRun(ids.incrementAndGet(), testRunName);
+            project.testRuns.add(testRun);
+        }
+        testRun.devices.add(device);
+        testRun.running++;
+        capabilities.put("deviceName", device.displayName);
+        capabilities.put("platformName", device.osType.equals(IOS) ? "iOS" : "Android");
+        Session session = new Session(sessionId, capabilities, device, testRun);
+        sessions.put(sessionId, session);
+        return session;
+    }
+
+    private synchronized void endSession(Session session) {
+        sessions.remove(session.id);
+        if (session.device.sessionId != null && session.device.sessionId.equals(session.id)) {
+            session.device.sessionId = null;
+            session.device.lockedUntil = System.currentTimeMillis() + unlockDelay;
+        }
+        session.testRun.running--;
+    }
+
+    /**
+     * @return Value of a command in a session
+     */
+    private Object command(Session session, String method, List<String> command) {
+        String name = command.isEmpty() ? "" : command.get(command.size() - 1);
+        if (command.isEmpty()) {
+            return session.capabilities;
+        }
+        if (method.equals("POST") && name.equals("element")) {
+            return element(session);
+        }
+        if (method.equals("POST") && name.equals("elements")) {
+            return Arrays.asList(element(session), element(session), element(session));
+        }
+        if (command.size() == 1) {
+            switch (name) {
+                case "screenshot":
+                    return Base64.getEncoder().encodeToString(screenshot);
+                case "source":
+                    return pageSource;
+                case "title":
+                case "url":
+                    return "";
+                case "window_handle":
+                case "context":
+                    return "NATIVE_APP";
+                case "window_handles":
+                case "contexts":
+                    return Collections.singletonList("NATIVE_APP");
+                default:
+                    return null;
+            }
+        }
+        if (command.get(0).equals("element")) {
+            switch (name) {
+                case "text":
+                    return "Stub text";
+                case "displayed":
+                case "enabled":
+                    return true;
+                case "selected":
+                    return false;
+                case "location":
+                    return coordinates("x", "y");
+                case "size":
+                    return coordinates("width", "height");
+                default:
+                    return null;
+            }
+        }
+        if (command.size() == 3 && command.get(2).equals("current_activity")) {
+            return ".MainActivity";
+        }
+        return null;
+    }
+
+    private static Map<String, Object> element(Session session) {
+        return Collections.singletonMap("ELEMENT", String.valueOf(session.elementCount.incrementAndGet()));
+    }
+
+    private static Map<String, Object> coordinates(String first, String second) {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put(first, 0);
+        value.put(second, 0);
+        return value;
+    }
+
+    private void handleUpload(HttpExchange exchange) throws IOException {
+        long size = discardBody(exchange);
+        if (inject(Endpoint.UPLOAD)) {
+            send(exchange, 500, error("Injected failure"));
+            return;
+        }
+        Map<String, Object> uploads = Collections.singletonMap("file", UUID.randomUUID() + "/application");
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("message", "uploads successful");
+        status.put("uploadCount", 1);
+        status.put("expiresIn", 1800);
+        status.put("uploads", uploads);
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("status", 0);
+        response.put("sessionId", null);
+        response.put("value", status);
+        LOGGER.debug("Received upload of {} bytes", size);
+        send(exchange, 200, response);
+    }
+
+    private void handleToken(HttpExchange exchange) throws IOException {
+        readBody(exchange);
+        if (inject(Endpoint.API)) {
+            send(exchange, 500, error("Injected failure"));
+            return;
+        }
+        Map<String, Object> token = new LinkedHashMap<>();
+        token.put("access_token", UUID.randomUUID().toString());
+        token.put("token_type", "bearer");
+        token.put("refresh_token", UUID.randomUUID().toString());
+        token.put("expires_in", 3600);
+        token.put("scope", "read write");
+        send(exchange, 200, token);
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        readBody(exchange);
+        List<String> path = split(exchange.getRequestURI().getPath().substring(API_PATH.length()));
+        if (path.size() == 4 && path.get(0).equals("me") && path.get(1).equals("files")
+                && path.get(3).equals("file")) {
+            handleDownload(exchange, path.get(2));
+            return;
+        }
+        if (inject(Endpoint.API)) {
+            send(exchange, 500, error("Injected failure"));
+            return;
+        }
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        Object response;
+        synchronized (this) {
+            response = api(path, query);
+        }
+        if (response == null) {
+            send(exchange, 404, error("Not found: " + exchange.getRequestURI().getPath()));
+        } else {
+            send(exchange, 200, response);
+        }
+    }
+
+    /**
+     * @return Response of an API path, or null if there is none
+     */
+    private Object api(List<String> path, Map<String, String> query) {
+        String search = StringUtils.defaultString(query.get("search")).toLowerCase(Locale.ENGLISH);
+        if (path.equals(Collections.singletonList("devices"))) {
+            long now = System.currentTimeMillis();
+            List<Object> found = new ArrayList<>();
+            for (Device device : devices) {
+                if (device.displayName.toLowerCase(Locale.ENGLISH).contains(search)) {
+                    found.add(toJson(device, now));
+                }
+            }
+            return list(found, query);
+        }
+        if (path.isEmpty() || !path.get(0).equals("me")) {
+            return null;
+        }
+        if (path.size() == 1) {
+            Map<String, Object> user = new LinkedHashMap<>();
+            user.put("id", 1);
+            user.put("name", "Stub User");
+            user.put("email", "stub@example.com");
+            return user;
+        }
+        if (!path.get(1).equals("projects")) {
+            return null;
+        }
+        if (path.size() == 2) {
+            // Only name filters, like s_name_eq_<name>, are supported
+            String filter = query.get("filter");
+            String name = filter != null && filter.contains("_eq_")
+                    ? filter.substring(filter.indexOf("_eq_") + "_eq_".length()) : null;
+            List<Object> found = new ArrayList<>();
+            for (Project project : projects.values()) {
+                if (name == null || project.name.equals(name)) {
+                    found.add(toJson(project));
+                }
+            }
+            return list(found, query);
+        }
+        Project project = null;
+        for (Project candidate : projects.values()) {
+            if (String.valueOf(candidate.id).equals(path.get(2))) {
+                project = candidate;
+            }
+        }
+        if (project == null) {
+            return null;
+        }
+        if (path.size() == 3) {
+            return toJson(project);
+        }
+        if (!path.get(3).equals("runs")) {
+            return null;
+        }
+        if (path.size() == 4) {
+            List<Object> found = new ArrayList<>();
+            // Most recent first
+            for (int i = project.testRuns.size() - 1; i >= 0; i--) {
+                TestRun testRun = project.testRuns.get(i);
+                if (testRun.displayName.toLowerCase(Locale.ENGLISH).contains(search)) {
+                    found.add(toJson(testRun));
+                }
+            }
+            return list(found, query);
+        }
+        TestRun testRun = null;
+        for (TestRun candidate : project.testRuns) {
+            if (String.valueOf(candidate.id).equals(path.get(4))) {
+                testRun = candidate;
+            }
+        }
+        if (testRun == null) {
+            return null;
+        }
+        if (path.size() == 5) {
+            return toJson(testRun);
+        }
+        if (path.size() == 6 && (path.get(5).equals("device-sessions") || path.get(5).equals("device-runs"))) {
+            long now = System.currentTimeMillis();
+            List<Object> found = new ArrayList<>();
+            for (int i = 0; i < testRun.devices.size(); i++) {
+                Map<String, Object> deviceSession = new LinkedHashMap<>();
+                deviceSession.put("id", testRun.id * 1000 + i);
+                deviceSession.put("device", toJson(testRun.devices.get(i), now));
+                found.add(deviceSession);
+            }
+            return list(found, query);
+        }
+        if (path.size() == 9 && path.get(5).equals("device-sessions") && path.get(7).equals("output-file-set")
+                && path.get(8).equals("files")) {
+            long deviceSessionId = parseInt(path.get(6), -1);
+            if (deviceSessionId < testRun.id * 1000 || deviceSessionId >= testRun.id * 1000 + testRun.devices.size()) {
+                return null;
+            }
+            List<Object> found = new ArrayList<>();
+            for (OutputFile file : outputFiles) {
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("id", file.id);
+                json.put("name", file.name);
+                json.put("size", file.content.length);
+                found.add(json);
+            }
+            return list(found, query);
+        }
+        return null;
+    }
+
+    /**
+     * Send content of an output file, honoring byte ranges of the form bytes=first-
+     */
+    private void handleDownload(HttpExchange exchange, String fileId) throws IOException {
+        boolean fail = inject(Endpoint.DOWNLOAD);
+        OutputFile file = null;
+        synchronized (this) {
+            for (OutputFile candidate : outputFiles) {
+                if (String.valueOf(candidate.id).equals(fileId)) {
+                    file = candidate;
+                }
+            }
+        }
+        if (file == null) {
+            send(exchange, 404, error("Not found: " + exchange.getRequestURI().getPath()));
+            return;
+        }
+        int first = 0;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.matches("bytes=\\d+-")) {
+            first = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+            if (first >= file.content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + file.content.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+        }
+        int length = file.content.length - first;
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        exchange.getResponseHeaders().set("ETag", '"' + file.md5 + '"');
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        if (range != null && first > 0) {
+            exchange.getResponseHeaders().set("Content-Range",
+                    String.format("bytes %d-%d/%d", first, file.content.length - 1, file.content.length));
+            exchange.sendResponseHeaders(206, length);
+        } else {
+            exchange.sendResponseHeaders(200, length);
+        }
+        OutputStream out = exchange.getResponseBody();
+        if (fail) {
+            // Cut the transfer off halfway, closing an incomplete response drops the connection
+            out.write(file.content, first, length / 2);
+            out.flush();
+            downloadedBytes.addAndGet(length / 2);
+            exchange.close();
+            LOGGER.debug("Download of {} cut off", file.name);
+            return;
+        }
+        out.write(file.content, first, length);
+        out.close();
+        downloadedBytes.addAndGet(length);
+    }
+
+    private static Map<String, Object> toJson(Device device, long now) {
+        Map<String, Object> softwareVersion = new LinkedHashMap<>();
+        softwareVersion.put("id", device.apiLevel);
+        softwareVersion.put("apiLevel", device.apiLevel);
+        softwareVersion.put("releaseVersion", device.osType.equals(IOS) ? "12" : String.valueOf(device.apiLevel));
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", device.id);
+        json.put("displayName", device.displayName);
+        json.put("osType", device.osType);
+        json.put("locked", device.isLocked(now));
+        json.put("online", true);
+        json.put("softwareVersion", softwareVersion);
+        return json;
+    }
+
+    private static Map<String, Object> toJson(Project project) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", project.id);
+        json.put("name", project.name);
+        return json;
+    }
+
+    private static Map<String, Object> toJson(TestRun testRun) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("id", testRun.id);
+        json.put("displayName", testRun.displayName);
+        json.put("state", testRun.running > 0 ? "RUNNING" : "FINISHED");
+        return json;
+    }
+
+    private static Map<String, Object> list(List<Object> data, Map<String, String> query) {
+        int offset = parseInt(query.get("offset"), 0);
+        int limit = parseInt(query.get("limit"), 10);
+        List<Object> page = data.subList(Math.min(offset, data.size()), Math.min(offset + limit, data.size()));
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("data", page);
+        json.put("offset", offset);
+        json.put("limit", limit);
+        json.put("total", data.size());
+        json.put("empty", page.isEmpty());
+        json.put("search", query.get("search"));
+        json.put("sort", query.get("sort"));
+        return json;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return value != null ? Integer.parseInt(value) : defaultValue;
+        } catch (NumberFormatException ex) {
+            return defaultValue;
+        }
+    }
+
+    private static String capabilityOf(Map<String, Object> capabilities, String... names) {
+        for (String name : names) {
+            Object value = capabilities.get(name);
+            if (value != null && !value.toString().isEmpty()) {
+                return value.toString();
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, Object> error(String message) {
+        return Collections.singletonMap("message", message);
+    }
+
+    private static List<String> split(String path) {
+        List<String> parts = new ArrayList<>();
+        for (String part : path.split("/")) {
+            if (!part.isEmpty()) {
+                parts.add(part);
+            }
+        }
+        return parts;
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                int separator = parameter.indexOf('=');
+                if (separator > 0) {
+                    parameters.put(URLDecoder.decode(parameter.substring(0, separator), "UTF-8"),
+                            URLDecoder.decode(parameter.substring(separator + 1), "UTF-8"));
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static long discardBody(HttpExchange exchange) throws IOException {
+        long size = 0;
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                size += read;
+            }
+        }
+        return size;
+    }
+
+    private static void sendWebDriver(HttpExchange exchange, int httpStatus, String sessionId, int status,
+                                      Object value) throws IOException {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("sessionId", sessionId);
+        response.put("status", status);
+        response.put("value", value);
+        send(exchange, httpStatus, response);
+    }
+
+    private static void send(HttpExchange exchange, int httpStatus, Object response) throws IOException {
+        byte[] json = TestdroidAppiumClient.OBJECT_MAPPER.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=UTF-8");
+        exchange.sendResponseHeaders(httpStatus, json.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(json);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.testdroid.appium;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Session setup against the stub cloud server: application upload and upload cache, device lookup, waiting for a
+ * busy device and download of output files
+ */
+public class TestdroidAppiumClientTest {
+
+    private static final String DEVICE_NAME = "Stub Android";
+
+    private static final String PROJECT_NAME = "Stub project";
+
+    private static final String TEST_RUN_NAME = "Stub run";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubCloudServer server;
+
+    private File appFile;
+
+    private TestdroidAppiumClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubCloudServer();
+        server.addDevice(DEVICE_NAME, StubCloudServer.ANDROID, 28);
+        server.start();
+
+        appFile = folder.newFile("app.apk");
+        try (RandomAccessFile file = new RandomAccessFile(appFile, "rw")) {
+            file.setLength(256 * 1024);
+        }
+
+        client = newClient(null);
+    }
+
+    private TestdroidAppiumClient newClient(File uploadCacheDir) throws Exception {
+        TestdroidAppiumClient client = new TestdroidAppiumClient();
+        server.configure(client);
+        client.setAppFile(appFile);
+        client.setUploadCacheDir(uploadCacheDir);
+        client.setDeviceName(DEVICE_NAME);
+        client.setProjectName(PROJECT_NAME);
+        client.setTestRunName(TEST_RUN_NAME);
+        return client;
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void startsSessionWithUploadedApp() throws Exception {
+        try {
+            TestdroidAppiumDriverAndroid driver = client.getAndroidDriver();
+
+            assertNotNull(driver.getSessionId());
+            assertNotNull(client.getFileUUID());
+            assertEquals(1, server.getRequestCount(StubCloudServer.Endpoint.UPLOAD));
+            assertEquals(1, server.getSessionCount());
+            assertEquals("android", client.getTestdroidTarget());
+        } finally {
+            client.quit();
+        }
+        assertEquals(0, server.getSessionCount());
+    }
+
+    @Test
+    public void waitsForBusyDevice() throws Exception {
+        server.lockDevice(DEVICE_NAME, 2, TimeUnit.SECONDS);
+        client.setDeviceWaitTime(60);
+
+        long started = System.nanoTime();
+        try {
+            TestdroidAppiumDriverAndroid driver = client.getAndroidDriver();
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            assertNotNull(driver.getSessionId());
+            assertEquals(1, server.getSessionCount());
+            assertTrue("Session started after " + waited + " ms, before the device was free", waited >= 1900);
+        } finally {
+            client.quit();
+        }
+    }
+
+    @Test
+    public void failsWhenDeviceStaysBusy() throws Exception {
+        server.lockDevice(DEVICE_NAME, 1, TimeUnit.MINUTES);
+        client.setDeviceWaitTime(0);
+
+        try {
+            client.getAndroidDriver();
+            fail("Session started on a busy device");
+        } catch (Exception ex) {
+            assertEquals(0, server.getSessionCount());
+        } finally {
+            client.quit();
+        }
+    }
+
+    @Test
+    public void reusesCachedUpload() throws Exception {
+        File cacheDir = folder.newFolder("cache");
+        client.setUploadCacheDir(cacheDir);
+        client.uploadForSessions();
+
+        // Next session, like one of another test run, finds the upload from the cache
+        TestdroidAppiumClient next = newClient(cacheDir);
+        next.uploadForSessions();
+
+        assertNotNull(client.getFileUUID());
+        assertEquals(client.getFileUUID(), next.getFileUUID());
+        assertEquals(1, server.getRequestCount(StubCloudServer.Endpoint.UPLOAD));
+    }
+
+    @Test
+    public void uploadsAgainWhenCachedUploadExpires() throws Exception {
+        File cacheDir = folder.newFolder("cache");
+        client.setUploadCacheDir(cacheDir);
+        client.uploadForSessions();
+        // Expires before a session would be created with it
+        long expires = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        setExpires(cacheDir, Long.toString(expires));
+
+        newClient(cacheDir).uploadForSessions();
+
+        assertEquals(2, server.getRequestCount(StubCloudServer.Endpoint.UPLOAD));
+        assertTrue(Long.parseLong(getExpires(cacheDir)) > expires);
+    }
+
+    @Test
+    public void uploadsAgainWhenCacheEntryIsCorrupt() throws Exception {
+        File cacheDir = folder.newFolder("cache");
+        client.setUploadCacheDir(cacheDir);
+        client.uploadForSessions();
+        setExpires(cacheDir, "tomorrow");
+
+        TestdroidAppiumClient next = newClient(cacheDir);
+        next.uploadForSessions();
+
+        assertNotNull(next.getFileUUID());
+        assertEquals(2, server.getRequestCount(StubCloudServer.Endpoint.UPLOAD));
+        assertTrue(Long.parseLong(getExpires(cacheDir)) > System.currentTimeMillis());
+    }
+
+    @Test
+    public void resumesPartialDownload() throws Exception {
+        byte[] content = randomBytes(64 * 1024);
+        server.addOutputFile("logcat.txt", content);
+        long[] ids = startDeviceSession();
+        File outputDir = folder.newFolder("output");
+        File sessionDir = new File(outputDir, OutputFileDownloader.toFileName(DEVICE_NAME + "-" + ids[2]));
+        assertTrue(sessionDir.mkdirs());
+        Files.write(new File(sessionDir, "logcat.txt.part").toPath(), Arrays.copyOf(content, 40000));
+
+        List<File> files = download(outputDir, ids);
+
+        assertEquals(1, files.size());
+        assertArrayEquals(content, Files.readAllBytes(files.get(0).toPath()));
+        assertEquals(content.length - 40000, server.getDownloadedBytes());
+        assertFalse(new File(sessionDir, "logcat.txt.part").exists());
+    }
+
+    @Test
+    public void restartsDownloadWhenPartIsLongerThanFile() throws Exception {
+        byte[] content = randomBytes(16 * 1024);
+        server.addOutputFile("logcat.txt", content);
+        long[] ids = startDeviceSession();
+        File outputDir = folder.newFolder("output");
+        File sessionDir = new File(outputDir, OutputFileDownloader.toFileName(DEVICE_NAME + "-" + ids[2]));
+        assertTrue(sessionDir.mkdirs());
+        // Left behind by an earlier version of the file, range request of it is not satisfiable
+        Files.write(new File(sessionDir, "logcat.txt.part").toPath(), randomBytes(content.length + 100));
+
+        List<File> files = download(outputDir, ids);
+
+        assertEquals(1, files.size());
+        assertArrayEquals(content, Files.readAllBytes(files.get(0).toPath()));
+        assertEquals(content.length, server.getDownloadedBytes());
+    }
+
+    @Test
+    public void keepsFilesWhoseNamesDifferByCase() throws Exception {
+        server.addOutputFile("logcat.txt", "first".getBytes("UTF-8"));
+        server.addOutputFile("Logcat.txt", "second".getBytes("UTF-8"));
+        long[] ids = startDeviceSession();
+
+        List<File> files = download(folder.newFolder("output"), ids);
+
+        assertEquals(2, files.size());
+        assertEquals("logcat.txt", files.get(0).getName());
+        assertNotEquals(files.get(0).getName().toLowerCase(), files.get(1).getName().toLowerCase());
+        assertEquals("first", new String(Files.readAllBytes(files.get(0).toPath()), "UTF-8"));
+        assertEquals("second", new String(Files.readAllBytes(files.get(1).toPath()), "UTF-8"));
+    }
+
+    @Test
+    public void skipsDownloadedFiles() throws Exception {
+        byte[] content = randomBytes(16 * 1024);
+        server.addOutputFile("logcat.txt", content);
+        long[] ids = startDeviceSession();
+        File outputDir = folder.newFolder("output");
+        List<File> files = download(outputDir, ids);
+        long downloads = server.getRequestCount(StubCloudServer.Endpoint.DOWNLOAD);
+
+        assertEquals(files, download(outputDir, ids));
+        assertEquals(downloads, server.getRequestCount(StubCloudServer.Endpoint.DOWNLOAD));
+        assertEquals(content.length, server.getDownloadedBytes());
+        assertArrayEquals(content, Files.readAllBytes(files.get(0).toPath()));
+    }
+
+    /**
+     * Run a session on the device, so the stub has a device session to list output files of
+     *
+     * @return Ids of the project, test run and device session
+     */
+    private long[] startDeviceSession() throws Exception {
+        DesiredCapabilities capabilities = new DesiredCapabilities();
+        capabilities.setCapability("platformName", "Android");
+        capabilities.setCapability("testdroid_device", DEVICE_NAME);
+        capabilities.setCapability("testdroid_project", PROJECT_NAME);
+        capabilities.setCapability("testdroid_testrun", TEST_RUN_NAME);
+        new TestdroidAppiumDriverAndroid(server.getAppiumUrl(), capabilities).quit();
+
+        String projectsUrl = server.getCloudUrl() + "/api/v2/me/projects";
+        long projectId = readFirstId(projectsUrl);
+        String runsUrl = projectsUrl + "/" + projectId + "/runs";
+        long testRunId = readFirstId(runsUrl);
+        return new long[]{projectId, testRunId, readFirstId(runsUrl + "/" + testRunId + "/device-sessions")};
+    }
+
+    private static long readFirstId(String url) throws Exception {
+        JsonNode list = TestdroidAppiumClient.OBJECT_MAPPER.readTree(new URL(url));
+        return list.path("data").get(0).path("id").asLong();
+    }
+
+    private List<File> download(File outputDir, long[] ids) throws Exception {
+        OutputFileDownloader downloader = new OutputFileDownloader(server.getCloudUrl().toString(),
+                "stub@example.com", "stub", outputDir, PooledHttpTransport.get(2, 10000, 10000));
+        return downloader.download(ids[0], ids[1], ids[2], DEVICE_NAME).get(1, TimeUnit.MINUTES);
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static File getCacheEntry(File cacheDir) {
+        File[] entries = cacheDir.listFiles((dir, name) -> name.endsWith(".properties"));
+        assertNotNull(entries);
+        assertEquals(1, entries.length);
+        return entries[0];
+    }
+
+    private static String getExpires(File cacheDir) throws Exception {
+        Properties entry = new Properties();
+        try (InputStream in = new FileInputStream(getCacheEntry(cacheDir))) {
+            entry.load(in);
+        }
+        return entry.getProperty("expires");
+    }
+
+    private static void setExpires(File cacheDir, String expires) throws Exception {
+        File entryFile = getCacheEntry(cacheDir);
+        Properties entry = new Properties();
+        try (InputStream in = new FileInputStream(entryFile)) {
+            entry.load(in);
+        }
+        entry.setProperty("expires", expires);
+        try (OutputStream out = new FileOutputStream(entryFile)) {
+            entry.store(out, null);
+        }
+    }
+}
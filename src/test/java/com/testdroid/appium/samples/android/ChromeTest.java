@@ -7,6 +7,7 @@ import org.junit.BeforeClass;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
+import org.openqa.selenium.TimeoutException;
 
 import java.util.concurrent.TimeUnit;
 
@@ -44,12 +45,23 @@ public class ChromeTest {
     }
 
     @Test
-    public void mainPageTest() throws InterruptedException {
+    public void mainPageTest() {
         wd.get("http://www.google.com");
-        Thread.sleep(500);
+        waitForAnimation();
         screenshot("google.png");
     }
 
+    /**
+     * Wait for animations to end, screens that keep animating are used as they are after a short while
+     */
+    private static void waitForAnimation() {
+        try {
+            wd.waits().waitForStable(5, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            // Continue with the screen as it is
+        }
+    }
+
     private void screenshot(String name) {
         client.screenshot(name);
     }
@@ -8,6 +8,7 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 import org.openqa.selenium.By;
+import org.openqa.selenium.TimeoutException;
 
 import java.io.File;
 import java.util.concurrent.TimeUnit;
@@ -42,7 +43,8 @@ public class TestdroidTest {
         client.setDeviceWaitTime(3600);
 
         wd = client.getAndroidDriver();
-        wd.manage().timeouts().implicitlyWait(60, TimeUnit.SECONDS);
+        // Elements are waited for by polling
+        wd.manage().timeouts().implicitlyWait(0, TimeUnit.SECONDS);
     }
 
     @AfterClass
@@ -51,9 +53,9 @@ public class TestdroidTest {
     }
 
     @Test
-    public void mainPageTest() throws InterruptedException {
+    public void mainPageTest() {
         int i = 1;
-        Thread.sleep(200); // Wait a bit to make sure the main activity is ready
+        waitForAnimation(); // Make sure the main activity is ready
 
         // Make this test work with older API levels. If you know you don't run your tests on older devices, this
         // is not needed.
@@ -64,28 +66,39 @@ public class TestdroidTest {
 
         screenshot("screenshot-" + i++ + "-MainMenu1.png");
         // Native Activity
-        wd.findElement(By.xpath("//" + xpathPrefix + "Button[1]")).click();
-        Thread.sleep(200); // Wait a bit to for animation
+        wd.waits().waitForElement(By.xpath("//" + xpathPrefix + "Button[1]"), 60, TimeUnit.SECONDS).click();
+        waitForAnimation();
         screenshot("screenshot-" + i++ + "-NativeActivity.png");
         wd.navigate().back();
         // Hybrid Activity
-        wd.findElement(By.xpath("//" + xpathPrefix + "Button[1]")).click();
-        Thread.sleep(1000); // Wait a bit to for animation and webpage
+        wd.waits().waitForElement(By.xpath("//" + xpathPrefix + "Button[1]"), 60, TimeUnit.SECONDS).click();
+        waitForAnimation(); // Wait for animation and webpage
         screenshot("screenshot-" + i++ + "-HybridActivity.png");
         wd.navigate().back();
         // Function
-        wd.findElement(By.xpath("//" + xpathPrefix + "Button[1]")).click();
-        Thread.sleep(200); // Wait a bit to for animation
+        wd.waits().waitForElement(By.xpath("//" + xpathPrefix + "Button[1]"), 60, TimeUnit.SECONDS).click();
+        waitForAnimation();
         screenshot("screenshot-" + i++ + "-Functions.png");
         wd.navigate().back();
         // Device Info
-        wd.findElement(By.xpath("//" + xpathPrefix + "Button[1]")).click();
-        Thread.sleep(200); // Wait a bit to for animation
+        wd.waits().waitForElement(By.xpath("//" + xpathPrefix + "Button[1]"), 60, TimeUnit.SECONDS).click();
+        waitForAnimation();
         screenshot("screenshot-" + i++ + "-DeviceInfo.png");
         wd.navigate().back();
         screenshot("screenshot-" + i + "-MainMenu2.png");
     }
 
+    /**
+     * Wait for animations to end, screens that keep animating are used as they are after a short while
+     */
+    private static void waitForAnimation() {
+        try {
+            wd.waits().waitForStable(5, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            // Continue with the screen as it is
+        }
+    }
+
     private void screenshot(String name) {
         client.screenshot(name);
     }